@@ -0,0 +1,90 @@
+package com.marufeb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of CSV loading, snapshot reading, index building, the plain search and name completion over
+ * the WMR data and over generated networks of up to a million stations, see {@link NetworkGenerator}.
+ * The controller's methods are in {@link ControllerBenchmarks}. Each benchmark is measured both for throughput
+ * and for sampled latencies, and returns its result, so JMH keeps it from being optimised away.
+ * <pre>
+ * mvn -Pjmh verify                                  Every benchmark over every network, with the GC profiler
+ * mvn -Pjmh verify -Djmh.args="-prof gc -p size=wmr Benchmarks.dijkstra"
+ * </pre>
+ * Both modes report in microseconds, so the throughput of the loading benchmarks on large networks is better read
+ * with -tu s. The forks run with a fixed heap, for comparable GC figures.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class Benchmarks {
+
+    /**
+     * A network with the plain search and the completion index over it
+     */
+    @State(Scope.Benchmark)
+    public static class Network extends NetworkFixture {
+        /* wmr, or the number of stations of a generated network */
+        @Param({"wmr", "1000", "10000", "100000", "1000000"})
+        public String size;
+
+        Router dijkstra;
+        StationSearch search;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            open(size);
+            dijkstra = new Dijkstra(graph, Landmarks.of(graph, 4));
+            search = StationSearch.of(graph);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            close();
+        }
+    }
+
+    /**
+     * The index of a thread's next query
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+
+        int next() {
+            return next++ & (NetworkFixture.INPUTS - 1);
+        }
+    }
+
+    @Benchmark
+    public Object load(Network network) throws IOException {
+        return NetworkLoader.load(network.lines, network.accesses);
+    }
+
+    @Benchmark
+    public Object snapshot(Network network) throws IOException {
+        return NetworkSnapshot.read(network.snapshot);
+    }
+
+    @Benchmark
+    public Object index(Network network) {
+        return NetworkIndex.of(network.graph, network.network.segments());
+    }
+
+    /* The search alone, without the route cache of the controller */
+    @Benchmark
+    public Object dijkstra(Network network, Cursor cursor) {
+        final int i = cursor.next();
+        return network.dijkstra.route(network.froms[i], network.tos[i]);
+    }
+
+    @Benchmark
+    public Object complete(Network network, Cursor cursor) {
+        return network.search.complete(network.prefixes[cursor.next()], 10);
+    }
+}
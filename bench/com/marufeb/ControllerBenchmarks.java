@@ -0,0 +1,108 @@
+package com.marufeb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of building the controller, the contraction hierarchy search and every {@link Controller}
+ * method, over the WMR data and over generated networks, see {@link Benchmarks}.
+ * They stop at a hundred thousand stations: from {@link ControllerImpl}'s hierarchy threshold on, the controller
+ * builds a contraction hierarchy, whose witness-free contraction fills in more than a 4 GB heap holds at a
+ * million stations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ControllerBenchmarks {
+
+    /**
+     * A network with its controller
+     */
+    @State(Scope.Benchmark)
+    public static class Network extends NetworkFixture {
+        /* wmr, or the number of stations of a generated network */
+        @Param({"wmr", "1000", "10000", "100000"})
+        public String size;
+
+        ControllerImpl controller;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            open(size);
+            controller = new ControllerImpl(network);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            close();
+        }
+    }
+
+    /**
+     * The contraction hierarchy of a network, only built for the benchmark using it
+     */
+    @State(Scope.Benchmark)
+    public static class Hierarchy {
+        Router router;
+
+        @Setup(Level.Trial)
+        public void setUp(Network network) {
+            router = ContractionHierarchy.build(network.graph);
+        }
+    }
+
+    @Benchmark
+    public Object createGraph(Network network) {
+        return new ControllerImpl(network.network);
+    }
+
+    /* The search alone, without the route cache; the show methods go through it, as the TUI calls them */
+    @Benchmark
+    public Object hierarchy(Network network, Hierarchy hierarchy, Benchmarks.Cursor cursor) {
+        final int i = cursor.next();
+        return hierarchy.router.route(network.froms[i], network.tos[i]);
+    }
+
+    @Benchmark
+    public String showShortestPath(Network network, Benchmarks.Cursor cursor) {
+        final int i = cursor.next();
+        return network.controller.showShortestPath(network.fromNames[i], network.toNames[i]);
+    }
+
+    @Benchmark
+    public String showAccessiblePath(Network network, Benchmarks.Cursor cursor) {
+        final int i = cursor.next();
+        return network.controller.showAccessiblePath(network.fromStepFree[i], network.toStepFree[i]);
+    }
+
+    @Benchmark
+    public String showAllPaths(Network network, Benchmarks.Cursor cursor) {
+        final int i = cursor.next();
+        return network.controller.showAllPaths(network.fromNames[i], network.toNames[i]);
+    }
+
+    @Benchmark
+    public String showRankedRoutes(Network network, Benchmarks.Cursor cursor) {
+        final int i = cursor.next();
+        return network.controller.showRankedRoutes(network.fromNames[i], network.toNames[i]);
+    }
+
+    @Benchmark
+    public String listTermini(Network network, Benchmarks.Cursor cursor) {
+        return network.controller.listTermini(network.lineNames[cursor.next()]);
+    }
+
+    @Benchmark
+    public String listStationsInLine(Network network, Benchmarks.Cursor cursor) {
+        return network.controller.listStationsInLine(network.lineNames[cursor.next()]);
+    }
+
+    @Benchmark
+    public String listAllLines(Network network) {
+        return network.controller.listAllLines();
+    }
+}
@@ -0,0 +1,214 @@
+package com.marufeb;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a {@link QueryServer} with random queries between WMR stations over several pipelined connections and
+ * reports the throughput and the latency percentiles, each request timed from its send to its response.
+ * Without a port it starts a server in process first.
+ * <pre>
+ * java -cp out com.marufeb.LoadClient [options]
+ * --port &lt;n&gt;          The server's loopback port, default an in-process server
+ * --connections &lt;n&gt;   Concurrent connections, default 8
+ * --pipeline &lt;n&gt;      Requests in flight per connection, default 32
+ * --batch &lt;n&gt;         Requests per line, sent as an array when more than 1, default 1
+ * --ops &lt;list&gt;        The ops, cycled through, default showShortestPath,showAccessiblePath,showAllPaths
+ * --warmup &lt;s&gt;        Seconds of load before measuring, default 2
+ * --seconds &lt;s&gt;       Seconds of measured load, default 10
+ * --seed &lt;n&gt;          The seed of the queries, default 1
+ * --data &lt;dir&gt;        The directory of the WMR files, default resources
+ * </pre>
+ */
+public final class LoadClient {
+    private final int port;
+    private final int pipeline;
+    private final int batch;
+    private final String[] ops;
+    private final String[] stations;
+    private final long seed;
+    private volatile boolean measuring = false;
+    private volatile boolean stopping = false;
+
+    private LoadClient(int port, int pipeline, int batch, String[] ops, String[] stations, long seed) {
+        this.port = port;
+        this.pipeline = pipeline;
+        this.batch = batch;
+        this.ops = ops;
+        this.stations = stations;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = -1;
+        int connections = 8;
+        int pipeline = 32;
+        int batch = 1;
+        String ops = "showShortestPath,showAccessiblePath,showAllPaths";
+        double warmup = 2;
+        double seconds = 10;
+        long seed = 1;
+        String data = "resources";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--connections": connections = Integer.parseInt(args[i + 1]); break;
+                case "--pipeline": pipeline = Integer.parseInt(args[i + 1]); break;
+                case "--batch": batch = Integer.parseInt(args[i + 1]); break;
+                case "--ops": ops = args[i + 1]; break;
+                case "--warmup": warmup = Double.parseDouble(args[i + 1]); break;
+                case "--seconds": seconds = Double.parseDouble(args[i + 1]); break;
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                case "--data": data = args[i + 1]; break;
+                default: System.err.println("Unknown option " + args[i]);
+            }
+        }
+        final NetworkLoader.Network network = NetworkLoader.load(new File(data, "WMRlines.csv"),
+                new File(data, "WMRstationsWithStepFreeAccess.csv"));
+        final String[] stations = new String[network.graph().stationCount()];
+        for (int i = 0; i < stations.length; i++) stations[i] = network.graph().stationName(i);
+        QueryServer server = null;
+        if (port == -1) {
+            server = new QueryServer(new ControllerImpl(network), 0).start();
+            port = server.port();
+            System.out.println("In-process server on port " + port + (server.virtual() ? " with virtual threads" : ""));
+        }
+        final LoadClient client = new LoadClient(port, pipeline, batch, ops.split(","), stations, seed);
+        final Run[] runs = new Run[connections];
+        for (int i = 0; i < connections; i++) runs[i] = client.new Run(i);
+        for (Run run : runs) run.start();
+        Thread.sleep((long) (warmup * 1000));
+        client.measuring = true;
+        final long start = System.nanoTime();
+        Thread.sleep((long) (seconds * 1000));
+        client.measuring = false;
+        final long elapsed = System.nanoTime() - start;
+        client.stopping = true;
+        for (Run run : runs) run.join();
+        if (server != null) server.close();
+        client.report(runs, elapsed);
+    }
+
+    private void report(Run[] runs, long elapsed) {
+        long requests = 0;
+        long errors = 0;
+        int count = 0;
+        for (Run run : runs) {
+            requests += run.requests;
+            errors += run.errors.get();
+            count += run.count;
+            if (run.failure != null) System.err.println("Connection failed: " + run.failure);
+        }
+        final long[] latencies = new long[count];
+        int at = 0;
+        for (Run run : runs) {
+            System.arraycopy(run.latencies, 0, latencies, at, run.count);
+            at += run.count;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%d connections, %d in flight each, %d per line, %s%n", runs.length, pipeline, batch, String.join(",", ops));
+        System.out.printf("%d requests in %.1f s: %.0f requests/s, %d errors%n", requests, elapsed / 1e9, requests * 1e9 / elapsed, errors);
+        System.out.printf("latency (us) p50 %.1f  p90 %.1f  p99 %.1f  p999 %.1f  max %.1f%n", percentile(latencies, 0.5),
+                percentile(latencies, 0.9), percentile(latencies, 0.99), percentile(latencies, 0.999), percentile(latencies, 1));
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)] / 1e3;
+    }
+
+    /**
+     * One connection: this thread sends while keeping at most the pipeline in flight, a second one reads
+     */
+    private final class Run extends Thread {
+        private final Random random;
+        private final Semaphore inFlight = new Semaphore(pipeline);
+        private final Map<Long, Long> sent = new ConcurrentHashMap<>(); // Line id -> send time
+        private final AtomicLong errors = new AtomicLong();
+        private long[] latencies = new long[1 << 16]; // Written by the reader only
+        private int count = 0;
+        private long requests = 0;
+        private volatile Exception failure;
+
+        private Run(int index) {
+            super("load-" + index);
+            random = new Random(seed + index);
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                socket.setTcpNoDelay(true);
+                final Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                final Thread reader = new Thread(() -> read(in), getName() + "-reader");
+                reader.start();
+                long id = 0;
+                while (!stopping) {
+                    inFlight.acquire();
+                    final StringBuilder line = new StringBuilder();
+                    if (batch > 1) line.append('[');
+                    for (int i = 0; i < batch; i++) {
+                        if (i > 0) line.append(',');
+                        request(line, id + i);
+                    }
+                    if (batch > 1) line.append(']');
+                    sent.put(id, System.nanoTime());
+                    out.write(line.append('\n').toString());
+                    if (inFlight.availablePermits() == 0) out.flush(); // Flush once the pipeline is full
+                    id += batch;
+                }
+                out.flush();
+                inFlight.acquire(pipeline);
+                socket.shutdownOutput();
+                reader.join();
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void request(StringBuilder line, long id) {
+            final Map<String, Object> request = new LinkedHashMap<>();
+            request.put("id", id);
+            request.put("op", ops[(int) (id % ops.length)]);
+            request.put("from", stations[random.nextInt(stations.length)]);
+            request.put("to", stations[random.nextInt(stations.length)]);
+            Json.write(line, request);
+        }
+
+        private void read(BufferedReader in) {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final long now = System.nanoTime();
+                    final Object response = Json.parse(line);
+                    final List<?> responses = response instanceof List ? (List<?>) response : Collections.singletonList(response);
+                    long first = Long.MAX_VALUE;
+                    for (Object it : responses) {
+                        final Map<?, ?> fields = (Map<?, ?>) it;
+                        if (fields.containsKey("error") && measuring) errors.incrementAndGet();
+                        if (fields.get("id") instanceof Double) first = Math.min(first, ((Double) fields.get("id")).longValue());
+                    }
+                    final Long start = sent.remove(first);
+                    if (start != null && measuring) {
+                        if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                        latencies[count++] = now - start;
+                        requests += responses.size();
+                    }
+                    inFlight.release();
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+                inFlight.release(pipeline);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.marufeb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * The network of a benchmark: its CSV files and snapshot, the loaded network, and the queries run against it,
+ * drawn once from a fixed seed so every run asks the same ones. The JMH states of {@link Benchmarks} and
+ * {@link ControllerBenchmarks} extend it with their own network sizes.
+ */
+public abstract class NetworkFixture {
+    static final int INPUTS = 1024; // Queries per network, cycled through
+    private static final long SEED = 1;
+
+    File lines;
+    File accesses;
+    File snapshot;
+    NetworkLoader.Network network;
+    StationGraph graph;
+
+    final int[] froms = new int[INPUTS];
+    final int[] tos = new int[INPUTS];
+    final String[] fromNames = new String[INPUTS];
+    final String[] toNames = new String[INPUTS];
+    final String[] fromStepFree = new String[INPUTS];
+    final String[] toStepFree = new String[INPUTS];
+    final String[] lineNames = new String[INPUTS];
+    final String[] prefixes = new String[INPUTS];
+
+    private File directory;
+
+    /**
+     * Writes the files and loads the network
+     * @param size wmr, read from the resources directory or the one of the wmr.data system property,
+     * or the number of stations of a generated network
+     * @throws IOException If a file can't be read or written
+     */
+    void open(String size) throws IOException {
+        directory = Files.createTempDirectory("benchmarks").toFile();
+        if (size.equalsIgnoreCase("wmr")) {
+            final String data = System.getProperty("wmr.data", "resources");
+            lines = new File(data, "WMRlines.csv");
+            accesses = new File(data, "WMRstationsWithStepFreeAccess.csv");
+        } else {
+            lines = new File(directory, "lines.csv");
+            accesses = new File(directory, "accesses.csv");
+            NetworkGenerator.of(Integer.parseInt(size), SEED).write(lines, accesses);
+        }
+        network = NetworkLoader.load(lines, accesses);
+        snapshot = new File(directory, "network.snapshot");
+        NetworkSnapshot.write(snapshot, network, lines, accesses);
+        graph = network.graph();
+
+        final Random random = new Random(SEED);
+        final int n = graph.stationCount();
+        final int[] accessible = IntStream.range(0, n).filter(graph::stepFree).toArray();
+        for (int i = 0; i < INPUTS; i++) {
+            froms[i] = random.nextInt(n);
+            tos[i] = random.nextInt(n);
+            fromNames[i] = graph.stationName(froms[i]);
+            toNames[i] = graph.stationName(tos[i]);
+            fromStepFree[i] = graph.stationName(accessible.length == 0 ? froms[i] : accessible[random.nextInt(accessible.length)]);
+            toStepFree[i] = graph.stationName(accessible.length == 0 ? tos[i] : accessible[random.nextInt(accessible.length)]);
+            lineNames[i] = graph.lineName(random.nextInt(graph.lineCount()));
+            final String station = graph.stationName(random.nextInt(n));
+            prefixes[i] = station.substring(0, Math.min(station.length(), 1 + random.nextInt(6)));
+        }
+    }
+
+    /**
+     * Deletes the files written by {@link #open(String)}
+     */
+    void close() {
+        final File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files) file.delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,147 @@
+package com.marufeb;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Generates random networks shaped like a rail network, to track how the route finder scales.
+ * Lines are laid one after another: every line after the first starts at a station already in the network,
+ * each of its next stops is an existing station with the interchange probability and a new one otherwise,
+ * and at every stop a branch of the same line may split off with the branching probability.
+ * The network is therefore connected, and the same seed always gives the same network. O(stations)
+ */
+public final class NetworkGenerator {
+    private static final String[] FIRST = {"Ash", "Bir", "Brom", "Cal", "Cov", "Dud", "Eard", "Fen", "Gol", "Hal",
+            "Hag", "Kid", "Lea", "Lich", "Mal", "Nun", "Old", "Pel", "Red", "Rug", "Sel", "Shen", "Sol", "Stour",
+            "Sut", "Tam", "Tip", "Wal", "Wed", "Whit", "Wol", "Wyl"};
+    private static final String[] SECOND = {"bury", "ton", "ley", "field", "ford", "wick", "ham", "well", "stone",
+            "brook", "minster", "worth", "hill", "cote", "mere", "gate", "dale", "wood", "heath", "bridge", "by",
+            "thorpe", "combe", "hurst", "stead", "ridge", "borough", "marsh", "haven", "green", "moor", "side"};
+    private static final String[] THIRD = {"Central", "Parkway", "Junction", "Street", "Park", "Road", "Lane",
+            "Valley", "Spa", "Town", "North", "South", "East", "West", "Cross", "Halt"};
+
+    private final int stations;
+    private final int lineLength;
+    private final double branching;
+    private final double interchange;
+    private final double stepFree;
+    private final long seed;
+
+    /**
+     * @param stations The number of stations
+     * @param lineLength The mean number of stops of a line or branch
+     * @param branching The probability that a branch splits off at a stop
+     * @param interchange The probability that a stop is a station of another line
+     * @param stepFree The share of step-free stations
+     * @param seed The random seed
+     */
+    public NetworkGenerator(int stations, int lineLength, double branching, double interchange, double stepFree, long seed) {
+        if (stations < 2) throw new IllegalArgumentException("A network needs at least 2 stations");
+        if (lineLength < 1) throw new IllegalArgumentException("A line needs at least 1 segment");
+        this.stations = stations;
+        this.lineLength = lineLength;
+        this.branching = branching;
+        this.interchange = interchange;
+        this.stepFree = stepFree;
+        this.seed = seed;
+    }
+
+    /**
+     * @param stations The number of stations
+     * @param seed The random seed
+     * @return A generator with lines of 20 stops, few branches and a tenth of the stops interchanges
+     */
+    public static NetworkGenerator of(int stations, long seed) {
+        return new NetworkGenerator(stations, 20, 0.02, 0.1, 0.5, seed);
+    }
+
+    /**
+     * @return The network, as if loaded from files
+     */
+    public NetworkLoader.Network generate() {
+        final int[] segments = segments();
+        final StationGraph.Builder builder = new StationGraph.Builder();
+        for (int v = 0; v < stations; v++) builder.station(name(v));
+        for (int i = 0; i < segments.length; i += 4) {
+            builder.line("Line " + segments[i]);
+            builder.segment(segments[i], segments[i + 1], segments[i + 2], segments[i + 3]);
+        }
+        final Random random = new Random(seed);
+        for (int v = 0; v < stations; v++)
+            if (random.nextDouble() < stepFree) builder.stepFree(name(v));
+        return new NetworkLoader.Network(builder.build(), segments, seed, new ArrayList<>());
+    }
+
+    /**
+     * Writes the network in the format of the WMR files
+     * @param lines The lines file
+     * @param accesses The step-free access file
+     * @throws IOException If a file can't be written
+     */
+    public void write(File lines, File accesses) throws IOException {
+        final int[] segments = segments();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(lines), StandardCharsets.UTF_8))) {
+            out.write("TRAIN LINE,FROM/TO STATION,TO/FROM STATION,TRAVEL TIME (MINS)\n");
+            for (int i = 0; i < segments.length; i += 4)
+                out.write("Line " + segments[i] + "," + name(segments[i + 1]) + "," + name(segments[i + 2]) + "," + segments[i + 3] + "\n");
+        }
+        final Random random = new Random(seed);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(accesses), StandardCharsets.UTF_8))) {
+            out.write("STATION WITH STEP-FREE ACCESS\n");
+            for (int v = 0; v < stations; v++)
+                if (random.nextDouble() < stepFree) out.write(name(v) + "\n");
+        }
+    }
+
+    /**
+     * Lays the lines out. Station ids are handed out in order, so the name of id v is {@link #name(int)}
+     * @return The segments, as (line, from, to, minutes) id quadruples
+     */
+    private int[] segments() {
+        final Random random = new Random(seed);
+        int[] segments = new int[stations * 8];
+        int size = 0;
+        int created = 1;
+        final Set<Long> used = new HashSet<>(); // (line, station) pairs, so no line stops twice at a station
+        final int[] branches = new int[64]; // Stations branches split off from
+        for (int line = 0; created < stations; line++) {
+            int pending = 0;
+            branches[pending++] = line == 0 ? 0 : random.nextInt(created);
+            used.add(((long) line << 32) | branches[0]);
+            while (pending > 0 && created < stations) {
+                int v = branches[--pending];
+                final int length = 1 + random.nextInt(2 * lineLength);
+                for (int stop = 0; stop < length && created < stations; stop++) {
+                    int w = -1;
+                    if (random.nextDouble() < interchange) {
+                        final int candidate = random.nextInt(created);
+                        if (used.add(((long) line << 32) | candidate)) w = candidate;
+                    }
+                    if (w == -1) {
+                        w = created++;
+                        used.add(((long) line << 32) | w);
+                    }
+                    if (size + 4 > segments.length) segments = Arrays.copyOf(segments, segments.length * 2);
+                    segments[size++] = line;
+                    segments[size++] = v;
+                    segments[size++] = w;
+                    segments[size++] = 1 + random.nextInt(10);
+                    if (pending < branches.length && random.nextDouble() < branching) branches[pending++] = w;
+                    v = w;
+                }
+            }
+        }
+        return Arrays.copyOf(segments, size);
+    }
+
+    /**
+     * @return A unique station name, like "Wolbrook Junction"
+     */
+    static String name(int station) {
+        final int words = FIRST.length * SECOND.length * THIRD.length;
+        final String name = FIRST[station % FIRST.length] + SECOND[station / FIRST.length % SECOND.length] + " "
+                + THIRD[station / (FIRST.length * SECOND.length) % THIRD.length];
+        return station < words ? name : name + " " + (station / words + 1);
+    }
+}
@@ -0,0 +1,17 @@
+package com.marufeb;
+
+import java.util.List;
+
+/**
+ * A controller answering many route queries in one call,
+ * for clients that need structured results rather than text.
+ */
+public interface BatchController {
+	/**
+	 * Finds the routes for all the given queries, in parallel.
+	 * Queries sharing an origin and a mode are answered by a single search.
+	 * @param queries	the origin-destination pairs and their route modes
+	 * @return	the route of each query in the same order, null where a station is unknown or no route exists
+	 */
+	List<Path> routes(List<RouteQuery> queries);
+}
@@ -0,0 +1,356 @@
+package com.marufeb;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * A contraction hierarchy over the station graph.
+ * Stations are contracted in minimum degree order without witness searches, so the shortcut structure
+ * doesn't depend on the travel times: the minutes are filled in afterwards by a customisation pass over
+ * the lower triangles of every arc. Queries are bidirectional Dijkstra searches that only go upwards.
+ * Arcs are stored once, at their lower ranked end, sorted by their upper end.
+ * Since the shortcuts don't depend on the travel times either, a disruption update keeps the structure and
+ * only re-customises the arcs whose triangles it reaches.
+ * Query state lives in the calling thread's {@link SearchSpace}s, so the hierarchy is shared between threads.
+ */
+public final class ContractionHierarchy implements Router {
+    private final StationGraph graph;
+    private final int[] rank;
+
+    /* Upward CSR */
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] base; // The fastest original segment, INFINITY for shortcuts
+    private final int[] weights;
+    private final int[] via; // The station a shortcut goes through, -1 for original segments
+
+    /* Downward CSR: the lower ranked neighbours of every station, by id, with the arc leading up from them */
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final int[] downArcs;
+
+    private ContractionHierarchy(StationGraph graph, int[] rank, int[] offsets, int[] targets, int[] base) {
+        this.graph = graph;
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.base = base;
+        this.weights = new int[targets.length];
+        this.via = new int[targets.length];
+        final int n = rank.length;
+        downOffsets = new int[n + 1];
+        for (int w : targets) downOffsets[w + 1]++;
+        for (int v = 0; v < n; v++) downOffsets[v + 1] += downOffsets[v];
+        downSources = new int[targets.length];
+        downArcs = new int[targets.length];
+        final int[] next = Arrays.copyOf(downOffsets, n);
+        for (int x = 0; x < n; x++)
+            for (int i = offsets[x]; i < offsets[x + 1]; i++) {
+                final int slot = next[targets[i]]++;
+                downSources[slot] = x;
+                downArcs[slot] = i;
+            }
+    }
+
+    private ContractionHierarchy(ContractionHierarchy hierarchy, StationGraph graph, int[] base, int[] weights, int[] via) {
+        this.graph = graph;
+        this.rank = hierarchy.rank;
+        this.offsets = hierarchy.offsets;
+        this.targets = hierarchy.targets;
+        this.base = base;
+        this.weights = weights;
+        this.via = via;
+        this.downOffsets = hierarchy.downOffsets;
+        this.downSources = hierarchy.downSources;
+        this.downArcs = hierarchy.downArcs;
+    }
+
+    /**
+     * Orders and contracts the stations, then customises the travel times.
+     * Each round picks the stations whose degree is a local minimum, which are independent of each other,
+     * and computes their shortcuts in parallel. O(sum of squared degrees at contraction time)
+     * @param graph The graph
+     * @return The hierarchy
+     */
+    public static ContractionHierarchy build(StationGraph graph) {
+        final int n = graph.stationCount();
+        final List<Set<Integer>> adjacent = new ArrayList<>(n);
+        for (int v = 0; v < n; v++) {
+            final Set<Integer> neighbours = new HashSet<>();
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++)
+                if (graph.target(e) != v) neighbours.add(graph.target(e));
+            adjacent.add(neighbours);
+        }
+
+        final int[] rank = new int[n];
+        final int[][] upward = new int[n][];
+        final boolean[] contracted = new boolean[n];
+        int[] remaining = IntStream.range(0, n).toArray();
+        int next = 0;
+        while (remaining.length > 0) {
+            final int[] round = Arrays.stream(remaining).parallel()
+                    .filter(v -> adjacent.get(v).stream().allMatch(w -> before(v, w, adjacent)))
+                    .toArray();
+            final int[][] neighbours = Arrays.stream(round).parallel()
+                    .mapToObj(v -> adjacent.get(v).stream().mapToInt(Integer::intValue).sorted().toArray())
+                    .toArray(int[][]::new);
+            for (int i = 0; i < round.length; i++) {
+                final int v = round[i];
+                rank[v] = next++;
+                contracted[v] = true;
+                upward[v] = neighbours[i];
+                for (int a : neighbours[i]) {
+                    final Set<Integer> set = adjacent.get(a);
+                    set.remove(v);
+                    for (int b : neighbours[i]) if (a != b) set.add(b); // Fill in
+                }
+                adjacent.set(v, Collections.emptySet());
+            }
+            remaining = Arrays.stream(remaining).filter(v -> !contracted[v]).toArray();
+        }
+
+        final int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) offsets[v + 1] = offsets[v] + upward[v].length;
+        final int[] targets = new int[offsets[n]];
+        for (int v = 0; v < n; v++) System.arraycopy(upward[v], 0, targets, offsets[v], upward[v].length);
+        final int[] base = new int[targets.length];
+        Arrays.fill(base, Dijkstra.INFINITY);
+        final ContractionHierarchy hierarchy = new ContractionHierarchy(graph, rank, offsets, targets, base);
+        for (int v = 0; v < n; v++)
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                final int arc = hierarchy.arc(v, graph.target(e));
+                if (arc != -1) base[arc] = Math.min(base[arc], graph.weight(e));
+            }
+        hierarchy.customise();
+        return hierarchy;
+    }
+
+    /**
+     * @return Whether v is contracted before its neighbour w: lower degree first, ties broken by a hash
+     */
+    private static boolean before(int v, int w, List<Set<Integer>> adjacent) {
+        final int a = adjacent.get(v).size();
+        final int b = adjacent.get(w).size();
+        if (a != b) return a < b;
+        final int hv = mix(v);
+        final int hw = mix(w);
+        return hv != hw ? hv < hw : v < w;
+    }
+
+    private static int mix(int v) {
+        int h = v * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Sets every arc to the fastest of its own segment and its lower triangles,
+     * visiting stations from the lowest rank upwards. O(sum of squared upward degrees)
+     */
+    private void customise() {
+        System.arraycopy(base, 0, weights, 0, base.length);
+        Arrays.fill(via, -1);
+        final int[] order = new int[rank.length];
+        for (int v = 0; v < rank.length; v++) order[rank[v]] = v;
+        for (int x : order)
+            for (int i = offsets[x]; i < offsets[x + 1]; i++) {
+                if (weights[i] == Dijkstra.INFINITY) continue;
+                for (int j = offsets[x]; j < offsets[x + 1]; j++) {
+                    if (i == j || weights[j] == Dijkstra.INFINITY) continue;
+                    final int u = targets[i];
+                    final int w = targets[j];
+                    if (rank[u] > rank[w]) continue; // Each upper arc once, from its lower end
+                    final int arc = arc(u, w);
+                    final int candidate = weights[i] + weights[j];
+                    if (candidate < weights[arc]) {
+                        weights[arc] = candidate;
+                        via[arc] = x;
+                    }
+                }
+            }
+    }
+
+    /**
+     * Re-customises only what the update reaches: the arcs of the changed segments, then, in rank order of
+     * their lower end, every arc with a lower triangle over an arc that changed. O(reached arcs * degree)
+     */
+    @Override
+    public ContractionHierarchy update(StationGraph.Update update) {
+        final StationGraph after = update.build();
+        final int[] base = this.base.clone();
+        final int[] weights = this.weights.clone();
+        final int[] via = this.via.clone();
+        final ContractionHierarchy hierarchy = new ContractionHierarchy(this, after, base, weights, via);
+
+        final SearchSpace queued = SearchSpace.of(SearchSpace.SCRATCH, targets.length);
+        final MinHeap heap = queued.heap;
+        for (int e : update.changes()) {
+            final int arc = arc(after.source(e), after.target(e));
+            if (arc == -1 || queued.visited(arc)) continue;
+            final int low = rank[after.source(e)] < rank[after.target(e)] ? after.source(e) : after.target(e);
+            final int high = targets[arc];
+            int fastest = Dijkstra.INFINITY;
+            for (int f = after.firstEdge(low); f < after.endEdge(low); f++)
+                if (after.target(f) == high) fastest = Math.min(fastest, after.weight(f));
+            base[arc] = fastest;
+            queued.set(arc, 0, low);
+            heap.push(rank[low], arc);
+        }
+        while (!heap.isEmpty()) {
+            final int arc = MinHeap.value(heap.pop());
+            final int x = queued.parent(arc);
+            if (!hierarchy.recustomise(x, arc)) continue;
+            final int u = targets[arc];
+            for (int j = offsets[x]; j < offsets[x + 1]; j++) { // Arcs having this one in a lower triangle
+                if (j == arc) continue;
+                final int w = targets[j];
+                final int dependent = arc(u, w);
+                if (queued.visited(dependent)) continue;
+                final int low = rank[u] < rank[w] ? u : w;
+                queued.set(dependent, 0, low);
+                heap.push(rank[low], dependent);
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Sets an arc to the fastest of its own segment and its lower triangles, found by merging the downward lists
+     * of its ends. O(degree)
+     * @param low The lower end of the arc
+     * @param arc The arc
+     * @return Whether the weight changed
+     */
+    private boolean recustomise(int low, int arc) {
+        final int high = targets[arc];
+        int best = base[arc];
+        int through = -1;
+        int i = downOffsets[low];
+        int j = downOffsets[high];
+        while (i < downOffsets[low + 1] && j < downOffsets[high + 1]) {
+            if (downSources[i] < downSources[j]) i++;
+            else if (downSources[i] > downSources[j]) j++;
+            else {
+                final int a = weights[downArcs[i++]];
+                final int b = weights[downArcs[j++]];
+                if (a != Dijkstra.INFINITY && b != Dijkstra.INFINITY && a + b < best) {
+                    best = a + b;
+                    through = downSources[i - 1];
+                }
+            }
+        }
+        final boolean changed = best != weights[arc];
+        weights[arc] = best;
+        via[arc] = through;
+        return changed;
+    }
+
+    /**
+     * @return The arc between two stations, or -1 if there is none. O(log degree)
+     */
+    private int arc(int a, int b) {
+        final int low = rank[a] < rank[b] ? a : b;
+        final int high = low == a ? b : a;
+        final int i = Arrays.binarySearch(targets, offsets[low], offsets[low + 1], high);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * Bidirectional upward search, stopping each side once its queue can't beat the best meeting point.
+     */
+    @Override
+    public Path route(int from, int to) {
+        if (from == to) return Path.of(graph, new int[]{from});
+        final SearchSpace[] spaces = {
+                SearchSpace.of(SearchSpace.FORWARD, rank.length),
+                SearchSpace.of(SearchSpace.BACKWARD, rank.length)
+        };
+        spaces[0].set(from, 0, -1);
+        spaces[1].set(to, 0, -1);
+        spaces[0].heap.push(0, from);
+        spaces[1].heap.push(0, to);
+
+        int best = Dijkstra.INFINITY;
+        int meeting = -1;
+        int side = 0;
+        int settled = 0;
+        int relaxed = 0;
+        while (!spaces[0].heap.isEmpty() || !spaces[1].heap.isEmpty()) {
+            if (spaces[side].heap.isEmpty()) side ^= 1;
+            final SearchSpace own = spaces[side];
+            final long entry = own.heap.pop();
+            final int v = MinHeap.value(entry);
+            final int minutes = own.key(v);
+            if (MinHeap.key(entry) > minutes) continue;
+            if (minutes >= best) {
+                own.heap.clear();
+                side ^= 1;
+                continue;
+            }
+            settled++;
+            final int other = spaces[side ^ 1].key(v);
+            if (other != Dijkstra.INFINITY && minutes + other < best) {
+                best = minutes + other;
+                meeting = v;
+            }
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                if (weights[i] == Dijkstra.INFINITY) continue;
+                relaxed++;
+                final int w = targets[i];
+                final int candidate = minutes + weights[i];
+                if (candidate < own.key(w)) {
+                    own.set(w, candidate, v);
+                    own.heap.push(candidate, w);
+                }
+            }
+            side ^= 1;
+        }
+        Metrics.HIERARCHY.record(settled, relaxed);
+        if (meeting == -1) return null;
+
+        final IntList stations = new IntList();
+        final IntList up = new IntList();
+        for (int v = meeting; v != -1; v = spaces[0].parent(v)) up.add(v);
+        stations.add(from);
+        for (int i = up.size() - 1; i > 0; i--) unpack(up.get(i), up.get(i - 1), stations);
+        for (int v = meeting; spaces[1].parent(v) != -1; v = spaces[1].parent(v)) unpack(v, spaces[1].parent(v), stations);
+        return Path.of(graph, stations.toArray());
+    }
+
+    /**
+     * Appends the stations after {@code a} on the arc from a to b, expanding shortcuts recursively
+     */
+    private void unpack(int a, int b, IntList stations) {
+        final int x = via[arc(a, b)];
+        if (x == -1) {
+            stations.add(b);
+            return;
+        }
+        unpack(a, x, stations);
+        unpack(x, b, stations);
+    }
+
+    /**
+     * A growable int array
+     */
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
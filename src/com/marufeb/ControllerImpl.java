@@ -1,328 +1,643 @@
 package com.marufeb;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-public class ControllerImpl implements Controller{
+public class ControllerImpl implements Controller, RoutePlanner, BatchController {
 
-    private final ArrayList<Line> lines = new ArrayList<>();
-    private final ArrayList<String> stepFree = new ArrayList<>();
+    /* Replaced as a whole, never modified, so queries can run on any thread; a query reads it once */
+    private volatile State state;
+    private final long checksum;
+    private final List<String> problems;
+    private int updates = 0; // Guarded by this
+    private final RouteCache cache = new RouteCache(CACHE_SIZE, CACHE_MINUTES, TimeUnit.MINUTES);
+    private final StationSearch search;
+
+    /* The number of A* landmarks */
+    private static final int LANDMARKS = 4;
+    /* The bounds of showAllPaths: changes beyond the fewest possible, results, and travel time as a multiple of the fastest route */
+    private static final int ALL_PATHS_CHANGES = 3;
+    private static final int ALL_PATHS_RESULTS = 20;
+    private static final int ALL_PATHS_SLACK = 2;
+    /* The network size from which queries go through a contraction hierarchy */
+    private static final int HIERARCHY_THRESHOLD = 10_000;
+    /* The route cache bounds */
+    private static final int CACHE_SIZE = 10_000;
+    private static final int CACHE_MINUTES = 10;
+    /* The most changes of a timetabled journey, and the clock-face timetable used when none is given */
+    private static final int JOURNEY_CHANGES = 5;
+    private static final int FIRST_TRAIN = 6 * 60;
+    private static final int LAST_TRAIN = 23 * 60 + 30;
+    private static final int TRAIN_EVERY = 30;
 
     /**
      * The controller constructor. O(n)
      * @param lines The File which holds lines data
      * @param accesses The File which holds accesses data
-     * @throws FileNotFoundException FNFe
+     * @throws IOException If a file can't be read
      */
-    public ControllerImpl(File lines, File accesses) throws FileNotFoundException {
-        final Stream<List<String>> tokens = new Scanner(lines) // Extracts tokens
-                .useDelimiter("\n")
-                .tokens()
-                .distinct()
-                .skip(1)
-                .map(it-> Arrays.asList(it.split(",")));
-        stepFree.addAll(new Scanner(accesses).useDelimiter("\n").tokens().skip(1).collect(Collectors.toList()));
-        init(tokens);
+    public ControllerImpl(File lines, File accesses) throws IOException {
+        this(NetworkLoader.load(lines, accesses));
     }
 
     /**
-     * Initializes the controller. Called by the constructor. O(n)
-     * @param tokens The data tokens used in this context.
+     * Creates a controller over an already loaded network. O(n)
+     * @param network The network
      */
-    private void init(Stream<List<String>> tokens) {
-        lines.clear();
-        lines.addAll(tokens // Parsing tokens
-                .map(token -> new Line(token.get(0), token.get(1), token.get(2), Integer.parseInt(token.get(3))))
-                .collect(Collectors.toList()));
-        createGraph();
+    public ControllerImpl(NetworkLoader.Network network) {
+        checksum = network.checksum();
+        problems = network.problems();
+        init(network.graph(), network.segments());
+        final long start = Metrics.start();
+        search = StationSearch.of(network.graph());
+        Metrics.BUILD_SEARCH.stop(start);
+        Metrics.gauge("cache.size", cache::size);
+        Metrics.gauge("cache.hits", cache::hits);
+        Metrics.gauge("cache.misses", cache::misses);
+        Metrics.gauge("cache.evictions", cache::evictions);
+        Metrics.gauge("cache.expirations", cache::expirations);
+        Metrics.gauge("cache.invalidations", cache::invalidations);
     }
 
     /**
-     * Initializes the path graph. O(n)
+     * Answers shortest path queries from the precomputed all-pairs matrix, mapping it from the
+     * cache file or building and writing it if the cache is missing or stale.
+     * Once the network has been updated the cache no longer describes it, so the matrix is built in memory.
+     * A network too large for the matrix, see {@link TravelTimeMatrix#fits(int)}, keeps its current router.
+     * @param cache The matrix cache file
+     * @return Whether the matrix is used
+     * @throws IOException If the cache can't be read or written
      */
-    private void createGraph() {
-        if (lines.size()>0) {
-            final Map<String, List<Line>> lines = this.lines.stream()
-                    .collect(Collectors.groupingBy(it -> it.name));
-            lines.forEach((key, value) -> value.forEach(station -> lines.get(key).stream()
-                    .filter(it->it.to.equals(station.from))
-                    .findAny()
-                    .ifPresent(line -> { // Link stations
-                        if (!station.left.contains(line))
-                            station.left.add(line);
-                        if (!line.right.contains(line))
-                            line.right.add(station);
-
-                    })));
-            lines.forEach((name, stations) -> stations.forEach(it -> { // Define step free lines
-                it.stepFree = stepFree.contains(it.from);
-            }));
-        }
+    public synchronized boolean usePrecomputedMatrix(File cache) throws IOException {
+        final StationGraph graph = state.graph;
+        if (!TravelTimeMatrix.fits(graph.stationCount())) return false;
+        final long start = Metrics.start();
+        state = state.with(updates == 0 ? TravelTimeMatrix.cached(cache, graph, checksum) : TravelTimeMatrix.build(graph));
+        Metrics.BUILD_MATRIX.stop(start);
+        return true;
     }
 
     /**
-     * Makes sure to have no cycles
-     * @param opt The operation sequence
-     * @param condition The condition to pick a line
-     * @return The list of all lines the method worked onto
+     * Applies a batch of disruption changes, like closing a station or slowing a segment down.
+     * The graph and the router are replaced, never modified: queries already running finish on the network
+     * they started with and the ones starting afterwards see the change. The router patches its
+     * precomputed data instead of rebuilding it, see {@link Router#update(StationGraph.Update)}.
+     * Cached routes through the changed stations are dropped, or all of them if something became faster, before
+     * the new network is published, and it takes the cache version after the drop, so neither a query on the new
+     * network finds a stale route nor one still running on the old network stores one.
+     * @param changes Fills in the update, using the ids of {@link #graph()}
+     * @throws IllegalArgumentException If a change names a segment that doesn't exist, nothing is applied then
      */
-    private ArrayList<Line> doOnce(Consumer<Line> opt, Predicate<Line> condition) {
-        final ArrayList<Line> result = new ArrayList<>();
-        lines.stream().filter(condition).forEach(line->{
-            if (!line.visited) {
-                result.add(line);
-                opt.accept(line);
-                line.visited = true;
+    public synchronized void update(Consumer<StationGraph.Update> changes) {
+        final State state = this.state;
+        final StationGraph.Update update = state.graph.update();
+        changes.accept(update);
+        final long start = Metrics.start();
+        final Router updated = state.router.update(update);
+        final StationGraph before = state.graph;
+        final StationGraph after = update.build();
+
+        if (update.faster()) cache.clear();
+        else {
+            final BitSet changed = new BitSet();
+            for (int e : update.changes()) {
+                changed.set(after.source(e));
+                changed.set(after.target(e));
             }
-        });
-        lines.stream().filter(condition).forEach(it->it.visited=false);
-        return result;
+            boolean gained = false; // A new step-free station may open accessible routes anywhere
+            for (int v = 0; v < after.stationCount(); v++)
+                if (before.stepFree(v) != after.stepFree(v)) {
+                    changed.set(v);
+                    gained |= after.stepFree(v);
+                }
+            if (gained) cache.invalidate(RouteMode.STEP_FREE);
+            if (!changed.isEmpty()) cache.invalidateStations(changed);
+        }
+
+        // The timetable too is built before publishing, so a journey never pairs the new graph with the old times
+        this.state = new State(after, updated, state.index.update(after), cache.version(),
+                state.timetable == null ? null : state.timetable.update(after));
+        updates++;
+        Metrics.UPDATE.stop(start);
     }
 
     /**
-     * Navigates through the graph and takes all ending stations
-     * @return All end stations with their time
+     * Answers timetabled queries from the given timetable
+     * @param timetable A timetable of the current graph, see {@link Timetable#load}
      */
-    public ArrayList<Line> findEndPoints(Line line) {
-        final ArrayList<Line> start = findStartPoint(line);
-        final ArrayList<Line> lines = start.stream().flatMap(it -> traverseRight(it, 0).stream())
-                .distinct().collect(Collectors.toCollection(ArrayList::new));
-        this.lines.forEach(it->it.visited = false);
-        return lines;
+    public synchronized void useTimetable(Timetable timetable) {
+        state = state.with(timetable);
     }
 
     /**
-     * Traverses the graph all the way up to it's very right
-     * @param start The current start line
-     * @param depth The current recursive depth stack height
-     * @return The end points of a particular line
+     * @return The timetable, by default trains every 30 minutes from 06:00 to 23:30 between the termini of every line,
+     * see {@link Timetable#uniform}
      */
-    private ArrayList<Line> traverseRight(Line start, int depth) {
-        if (start.visited) return new ArrayList<>();
-        start.visited = true;
-        depth+=start.minutes;
-        start.minutesFromX = depth;
-        if (start.right.isEmpty()) {
-            final ArrayList<Line> res = new ArrayList<>();
-            start.visited = false;
-            res.add(start);
-            return res;
-        }
-        int finalDepth = depth;
-        return start.right.stream().flatMap(it->traverseRight(it, finalDepth).stream())
-                .collect(Collectors.toCollection(ArrayList::new));
+    public Timetable timetable() {
+        return timetabled().timetable;
     }
 
     /**
-     * Finds the shortest path between two station, allows you to calculate how many changes you need.
-     * @param start The station want to start from
-     * @param stop The station you want to arrive in
-     * @param traversable The steep-free only flag
-     * @param depth The current line timing
-     * @return An ArrayList which holds all lines traversed
+     * @return The current network with its timetable, building the default one on first use
      */
-    private ArrayList<Line> findPath(Line start, Line stop, boolean traversable, int depth) {
-        if (traversable) {
-            if (!start.stepFree) {
-                Line l = start;
-                do {
-                    assert l != null;
-                    l = l.left.stream().filter(it->it.stepFree).findFirst().orElse(null);
-                } while (l == null);
-                return findPath(l, stop, traversable, depth);
-            }
-            if (!stop.stepFree) {
-                Line l = stop;
-                do {
-                    assert l != null;
-                    l = l.right.stream().filter(it->it.stepFree).findFirst().orElse(null);
-                } while (l == null);
-                return findPath(l, stop, traversable, depth);
+    private State timetabled() {
+        final State state = this.state;
+        if (state.timetable != null) return state;
+        synchronized (this) {
+            State current = this.state;
+            if (current.timetable == null) {
+                final long start = Metrics.start();
+                current = this.state = current.with(Timetable.uniform(current.graph, current.index, FIRST_TRAIN, LAST_TRAIN, TRAIN_EVERY));
+                Metrics.BUILD_TIMETABLE.stop(start);
             }
+            return current;
         }
-        return findPath(start, stop, depth);
     }
 
     /**
-     * Goes recursively through the entire line in order to find
-     * @param start The line you want to start to
-     * @param stop The line you want to achieve
-     * @param depth The stack depth
-     * @return The effective line
+     * @return The cache in front of {@link #shortestRoute(String, String)} and {@link #accessibleRoute(String, String)}
      */
-    private ArrayList<Line> findPath(Line start, Line stop, int depth) {
-        final ArrayList<Line> result = new ArrayList<>();
-        if (start.right.isEmpty()) {
-            result.add(Line.ERROR);
-            return result;
-        }
+    public RouteCache routeCache() {
+        return cache;
+    }
 
-        if (start.left.contains(stop)) {
-            result.add(stop);
-            return result;
-        }
+    /**
+     * Initializes the controller. Called by the constructor. O(n)
+     * @param graph The station graph
+     * @param segments The segments in file order, as (line, from, to, minutes) id quadruples
+     */
+    private void init(StationGraph graph, int[] segments) {
+        long start = Metrics.start();
+        final NetworkIndex index = NetworkIndex.of(graph, segments);
+        Metrics.BUILD_INDEX.stop(start);
+        start = Metrics.start();
+        final Router router = graph.stationCount() >= HIERARCHY_THRESHOLD
+                ? ContractionHierarchy.build(graph)
+                : new Dijkstra(graph, Landmarks.of(graph, LANDMARKS));
+        Metrics.BUILD_ROUTER.stop(start);
+        state = new State(graph, router, index, cache.version(), null);
+    }
 
-        start.minutesFromX = depth += start.minutes;
-        int finalDepth = depth;
-        final ArrayList<Line> collect = new ArrayList<>();
-        collect.add(start);
-        collect.addAll(start.right.stream().map(it -> findPath(it, stop, finalDepth)).
-                filter(it -> !it.isEmpty() && !it.contains(Line.ERROR)).flatMap(Collection::stream)
-                .collect(Collectors.toCollection(ArrayList::new)));
-        return collect;
+    /**
+     * @return The malformed input skipped while loading, with file names and line numbers
+     */
+    public List<String> problems() {
+        return problems;
     }
 
     /**
-     * Traverses all graph all the way down to it's very left
-     * @param line The line you want to find the start of
-     * @return The actually starts
+     * Answers route queries through a contraction hierarchy, whatever the network size
      */
-    public ArrayList<Line> findStartPoint(Line line){
-        if (line.visited) return new ArrayList<>();
-        line.visited = true;
-        if (line.left.isEmpty()) {
-            final ArrayList<Line> objects = new ArrayList<>();
-            line.visited = false;
-            objects.add(line);
-            return objects;
-        }
-        return line.left.stream().flatMap(it->findStartPoint(line).stream()).distinct()
-                .collect(Collectors.toCollection(ArrayList::new));
+    public synchronized void useContractionHierarchy() {
+        final long start = Metrics.start();
+        state = state.with(ContractionHierarchy.build(state.graph));
+        Metrics.BUILD_ROUTER.stop(start);
+    }
+
+    /**
+     * @return The station name completion index, station names never change so it serves every graph
+     */
+    public StationSearch stationSearch() {
+        return search;
     }
 
+    /**
+     * @param name A station name as typed by a user
+     * @return The station id, see {@link StationSearch#resolve(String)}, or -1
+     */
+    private int station(StationGraph graph, String name) {
+        int id = graph.station(name);
+        if (id == -1 && (id = search.resolve(name)) == -1 && Metrics.ENABLED) Metrics.UNKNOWN_STATIONS.increment();
+        return id;
+    }
 
+    /**
+     * @return The line and station lookup tables of the current graph
+     */
+    public NetworkIndex index() {
+        return state.index;
+    }
 
     /**
-     * The WMR Line
+     * @return The station graph built from the loaded lines
      */
-    private static class Line {
-        private final String name;
-        private final String from;
-        private final String to;
-        private final int minutes;
-        private int minutesFromX = Integer.MAX_VALUE;
-        private boolean stepFree = false;
-        private final static Line ERROR = new Line("NOT FOUND", "", "", -1);
-
-        /* Linked list style */
-        private ArrayList<Line> left = new ArrayList<>();
-        private ArrayList<Line> right = new ArrayList<>();
-
-        /*   Avoid  cycles   */
-        private boolean visited = false;
-
-        public Line(String name, String from, String to, int minutes) {
-            this.name = name;
-            this.from = from;
-            this.to = to;
-            this.minutes = minutes; // The graph weight
-        }
+    public StationGraph graph() {
+        return state.graph;
     }
 
     @Override
     public String listTermini(String line) {
-        final String finalLine = line.replace("––", "–");
-        final StringBuilder builder = new StringBuilder();
-        AtomicInteger total = new AtomicInteger();
-        doOnce(it-> builder.append(it.from), it->it.name.equals(finalLine) && it.left.isEmpty() && !it.right.isEmpty())
-                .stream()
-                .findFirst().ifPresent(it-> total.addAndGet(it.minutes));
-        builder.append(" -- ");
-        doOnce(it->builder.append(it.to), it->it.name.equals(finalLine) && it.right.isEmpty()&& !it.left.isEmpty())
-                .stream()
-                .findFirst().ifPresent(it-> total.addAndGet(it.minutes));
-        return !builder.toString().equals(" -- ")?builder.append(" (").append(total.get()).append(")").toString():"Line "+line+" has no termini.";
+        final long start = Metrics.start();
+        try {
+            final State state = this.state;
+            final NetworkIndex index = state.index;
+            final StationGraph graph = state.graph;
+            final int id = index.line(line);
+            if (id == -1 || index.termini(id).length == 0) return "Line "+line+" has no termini.";
+            final int[] termini = index.termini(id);
+            final StringJoiner builder = new StringJoiner(" -- ");
+            for (int t : termini) builder.add(graph.stationName(index.station(id, t)));
+            return builder + " (" + span(index, id) + " mins)";
+        } finally {
+            Metrics.LIST_TERMINI.stop(start, line, null);
+        }
     }
 
     @Override
     public String listStationsInLine(String line) {
-        final String finalLine = line.replace("––", "–");
-        final StringBuilder builder = new StringBuilder();
-        final AtomicInteger timing = new AtomicInteger(0);
-        final Deque<String> stations = new ArrayDeque<>();
-
-        /*
-         Composes the pattern:
-         Nuneaton -- Coventry (22 mins):
-         Nuneaton <4> Bermuda Park <8> Bedworth <14> Coventry Arena <22> Coventry
-        */
-        doOnce(it -> {}, it -> it.name.equals(finalLine)).forEach(it -> stations.add(it.from==null?it.to:it.from + " <" + timing.addAndGet(it.minutes) + "> "));
-
-        builder.append(line).append(" (").append(timing.get()).append(") :\n"); // Construct header
-        while (!stations.isEmpty()) { builder.append(stations.pollFirst()); } // Construct body
+        final long start = Metrics.start();
+        try {
+            final State state = this.state;
+            final NetworkIndex index = state.index;
+            final StationGraph graph = state.graph;
+            final int id = index.line(line);
+            if (id == -1 || index.length(id) == 0) return "Line "+line+" has no stations.";
+            final StringBuilder builder = new StringBuilder();
 
-        return !builder.toString().isEmpty()?builder.toString():"Line "+line+" has no stations.";
+            /*
+             Composes the pattern, with a row per branch starting at its junction:
+             Nuneaton -- Coventry (22 mins):
+             Nuneaton <4> Bermuda Park <8> Bedworth <14> Coventry Arena <22> Coventry
+            */
+            builder.append(graph.lineName(id).replace("–", "--")).append(" (").append(span(index, id)).append(" mins):"); // Construct header
+            final SearchSpace printed = SearchSpace.of(SearchSpace.SCRATCH, index.length(id));
+            int[] branch = new int[16];
+            for (int t : index.termini(id)) { // Construct body
+                if (printed.visited(t) || index.parent(id, t) == -1) continue; // Roots start the rows of their branches
+                int size = 0;
+                for (int i = t; i != -1; i = printed.visited(i) ? -1 : index.parent(id, i)) {
+                    if (size == branch.length) branch = Arrays.copyOf(branch, size * 2);
+                    branch[size++] = i;
+                }
+                builder.append('\n').append(graph.stationName(index.station(id, branch[size - 1])));
+                printed.set(branch[size - 1], 0, -1);
+                for (int i = size - 2; i >= 0; i--) {
+                    builder.append(" <").append(index.minutesAt(id, branch[i])).append("> ").append(graph.stationName(index.station(id, branch[i])));
+                    printed.set(branch[i], 0, -1);
+                }
+            }
+            return builder.toString();
+        } finally {
+            Metrics.LIST_STATIONS_IN_LINE.stop(start, line, null);
+        }
     }
 
     @Override
     public String listAllLines() {
-        return lines.stream().flatMap(line -> findEndPoints(line).stream().map(it -> findStartPoint(line).get(0).from+" <...> "+it.to+" ("+it.minutesFromX+"mins)")).distinct().collect(Collectors.joining("\n"));
+        final long start = Metrics.start();
+        try {
+            final State state = this.state;
+            final NetworkIndex index = state.index;
+            final StationGraph graph = state.graph;
+            final StringJoiner builder = new StringJoiner("\n");
+            for (int line = 0; line < graph.lineCount(); line++) {
+                final int[] termini = index.termini(line);
+                int root = -1;
+                for (int t = 0, next = 0; t < index.length(line); t++) { // One row per terminus reached from a root
+                    if (index.parent(line, t) == -1) root = t;
+                    if (next == termini.length || termini[next] != t) continue;
+                    next++;
+                    if (t != root)
+                        builder.add(graph.stationName(index.station(line, root)) + " <...> " + graph.stationName(index.station(line, t))
+                                + " (" + index.minutesAt(line, t) + "mins)");
+                }
+            }
+            return builder.toString();
+        } finally {
+            Metrics.LIST_ALL_LINES.stop(start);
+        }
+    }
+
+    /**
+     * @return The longest time between two termini of the line
+     */
+    private static int span(NetworkIndex index, int line) {
+        final int[] termini = index.termini(line);
+        int span = 0;
+        for (int a : termini)
+            for (int b : termini) {
+                final int minutes = index.minutes(line, index.station(line, a), index.station(line, b));
+                if (minutes != Dijkstra.INFINITY) span = Math.max(span, minutes);
+            }
+        return span;
     }
 
     @Override
     public String showAccessiblePath(String fromStation, String toStation) {
-        final Map<String, List<Line>> map = lines.stream()
-                .distinct()
-                .collect(Collectors.groupingBy(it -> it.name));
-        final StringBuilder builder = new StringBuilder();
-        map.forEach((key, value) -> {
-            Line start = value.stream().filter(it->it.from.equals(fromStation)).findAny().orElse(null);
-            Line end = value.stream().filter(it->it.to.equals(toStation)).findAny().orElse(null);
-            if (start != null && end != null) {
-                findPath(start, end, true, 0).forEach(it -> builder.append(it.from).append(" -> "));
-                this.lines.forEach(it -> it.visited = false);
-            }
+        final long start = Metrics.start();
+        try {
+            final State state = this.state;
+            final StationGraph graph = state.graph;
+            final int from = station(graph, fromStation);
+            final int to = station(graph, toStation);
+            if (from == -1 || to == -1) return "";
+            if (!graph.stepFree(from) || !graph.stepFree(to))
+                return "No step-free access at " + graph.stationName(graph.stepFree(from) ? to : from) + ".";
+            final Route route = accessibleRoute(state, from, to);
+            return route == null
+                    ? "No accessible path between " + graph.stationName(from) + " and " + graph.stationName(to) + "."
+                    : RouteText.accessible(route);
+        } finally {
+            Metrics.SHOW_ACCESSIBLE_PATH.stop(start, fromStation, toStation);
+        }
+    }
+
+    @Override
+    public Route accessibleRoute(String fromStation, String toStation) {
+        final State state = this.state;
+        final int from = station(state.graph, fromStation);
+        final int to = station(state.graph, toStation);
+        return from == -1 || to == -1 ? null : accessibleRoute(state, from, to);
+    }
+
+    private Route accessibleRoute(State state, int from, int to) {
+        return cache.get(from, to, RouteMode.STEP_FREE, state.version, () -> {
+            final Path path = accessibleRoute(state.graph, state.router, from, to);
+            return path == null ? null : Route.of(state.graph, path);
         });
-        return builder.toString();
+    }
+
+    /**
+     * Takes the fastest route when all of its changes are step-free, since no accessible route can beat it,
+     * and only runs the constrained search otherwise
+     * @return The fastest accessible path, or null if there is none
+     */
+    private static Path accessibleRoute(StationGraph graph, Router router, int from, int to) {
+        if (!graph.stepFree(from) || !graph.stepFree(to)) return null;
+        final Path path = router.route(from, to);
+        if (path == null) return null;
+        for (int i = 1; i < path.length() - 1; i++)
+            if (path.line(i - 1) != path.line(i) && !graph.stepFree(path.station(i)))
+                return new Dijkstra(graph).accessibleRoute(from, to);
+        return path;
     }
 
     @Override
     public String showAllPaths(String fromStation, String toStation) {
-        final Map<String, List<Line>> map = lines.stream()
-                .distinct()
-                .collect(Collectors.groupingBy(it -> it.name));
-        final StringBuilder builder = new StringBuilder();
-        map.forEach((key, value) -> {
-            Line start = value.stream().filter(it->it.from.equals(fromStation)).findAny().orElse(null);
-            Line end = value.stream().filter(it->it.to.equals(toStation)).findAny().orElse(null);
-            if (start != null && end != null) {
-                final Map<String, List<Line>> collect = findPath(start, end, false, 0).stream().collect(Collectors.groupingBy(it -> it.name));
-                collect.forEach((k, v) -> {
-                            builder.append("\n").append(collect.keySet().size()-1).append(" changes: ");
-                            v.forEach(i->builder.append(i.from).append(" -> "));
-                        });
-                this.lines.forEach(it -> it.visited = false);
-                builder.append(toStation).append("\n");
-            }
-        });
-        return builder.toString();
+        final long start = Metrics.start();
+        try {
+            final State state = this.state;
+            final StationGraph graph = state.graph;
+            final int from = station(graph, fromStation);
+            final int to = station(graph, toStation);
+            if (from == -1 || to == -1) return "";
+            final List<Route> routes = allRoutes(state, from, to);
+            return routes.isEmpty()
+                    ? "No path between " + graph.stationName(from) + " and " + graph.stationName(to) + "."
+                    : RouteText.all(routes);
+        } finally {
+            Metrics.SHOW_ALL_PATHS.stop(start, fromStation, toStation);
+        }
     }
 
     @Override
-    public String showShortestPath(String fromStation, String toStation) {
-        final Map<String, List<Line>> map = lines.stream()
-                .distinct()
-                .collect(Collectors.groupingBy(it -> it.name));
-        final StringBuilder builder = new StringBuilder();
-        map.forEach((key, value) -> {
-            Line start = value.stream().filter(it->it.from.equals(fromStation)).findAny().orElse(null);
-            Line end = value.stream().filter(it->it.to.equals(toStation)).findAny().orElse(null);
-            if (start != null && end != null) {
-                final Map<String, List<Line>> collect = findPath(start, end, false, 0).stream().collect(Collectors.groupingBy(it -> it.name));
-                final Optional<List<Line>> min = collect.values().stream().min(Comparator.comparing(i -> i.get(i.size() - 1).minutesFromX));
-                min.ifPresent(line->{
-                    builder.append("\n").append("shortest: ");
-                    line.forEach(i->builder.append(i.from).append(" -> "));
-                    builder.append(toStation).append(" (").append(line.get(min.get().size()-1).minutesFromX).append(" mins)");
+    public List<Route> allRoutes(String fromStation, String toStation) {
+        final State state = this.state;
+        final int from = station(state.graph, fromStation);
+        final int to = station(state.graph, toStation);
+        return from == -1 || to == -1 ? new ArrayList<>() : allRoutes(state, from, to);
+    }
+
+    /**
+     * Takes the fastest route first, so the result cap can't drop it, then the paths of the enumeration allowing
+     * a few changes more than the fewest possible, so stations far apart in changes still get their alternatives
+     */
+    private static List<Route> allRoutes(State state, int from, int to) {
+        final StationGraph graph = state.graph;
+        final List<Route> routes = new ArrayList<>();
+        final Path fastest = state.router.route(from, to);
+        if (fastest == null) return routes;
+        routes.add(Route.of(graph, fastest));
+        final int changes = new Dijkstra(graph).fewestChanges(from, to);
+        new PathEnumerator(graph).enumerate(from, to, changes + ALL_PATHS_CHANGES, fastest.minutes() * ALL_PATHS_SLACK,
+                ALL_PATHS_RESULTS, path -> {
+                    if (!Arrays.equals(path.stations(), fastest.stations())) routes.add(Route.of(graph, path));
+                    return routes.size() < ALL_PATHS_RESULTS;
                 });
-            }
+        return routes;
+    }
+
+    @Override
+    public List<Route> rankedRoutes(String fromStation, String toStation) {
+        final long start = Metrics.start();
+        try {
+            final State state = this.state;
+            final StationGraph graph = state.graph;
+            final int from = station(graph, fromStation);
+            final int to = station(graph, toStation);
+            final List<Route> routes = new ArrayList<>();
+            if (from == -1 || to == -1) return routes;
+            // Not bounded by changes: a step-free route may need many more than the fastest, dominance keeps it small
+            new ParetoSearch(graph).routes(from, to)
+                    .forEach(it -> routes.add(Route.of(graph, it)));
+            return routes;
+        } finally {
+            Metrics.RANKED_ROUTES.stop(start, fromStation, toStation);
+        }
+    }
+
+    /**
+     * @return The text of {@link #rankedRoutes(String, String)}, one route per line
+     */
+    public String showRankedRoutes(String fromStation, String toStation) {
+        return RouteText.ranked(rankedRoutes(fromStation, toStation));
+    }
+
+    /**
+     * Streams the paths between two stations to the sink as they are found
+     * @param from The start station id
+     * @param to The destination station id
+     * @param maxChanges The maximum number of changes of a path
+     * @param maxMinutes The maximum travel time of a path
+     * @param maxResults The maximum number of paths
+     * @param sink The receiver of the paths, returning false to stop
+     * @return The number of paths found
+     */
+    public int allPaths(int from, int to, int maxChanges, int maxMinutes, int maxResults, PathEnumerator.Sink sink) {
+        return new PathEnumerator(state.graph).enumerate(from, to, maxChanges, maxMinutes, maxResults, sink);
+    }
+
+    @Override
+    public String showShortestPath(String fromStation, String toStation) {
+        final long start = Metrics.start();
+        try {
+            return RouteText.shortest(shortestRoute(fromStation, toStation));
+        } finally {
+            Metrics.SHOW_SHORTEST_PATH.stop(start, fromStation, toStation);
+        }
+    }
+
+    @Override
+    public Route shortestRoute(String fromStation, String toStation) {
+        final State state = this.state;
+        final int from = station(state.graph, fromStation);
+        final int to = station(state.graph, toStation);
+        if (from == -1 || to == -1) return null;
+        return cache.get(from, to, RouteMode.FASTEST, state.version, () -> {
+            final Path path = state.router.route(from, to);
+            return path == null ? null : Route.of(state.graph, path);
         });
-        return builder.toString();
+    }
+
+    @Override
+    public Journey earliestArrival(String fromStation, String toStation, int departure) {
+        final long start = Metrics.start();
+        try {
+            final State state = timetabled();
+            final int from = station(state.graph, fromStation);
+            final int to = station(state.graph, toStation);
+            return from == -1 || to == -1 ? null : state.timetable.earliestArrival(from, to, departure);
+        } finally {
+            Metrics.JOURNEYS.stop(start, fromStation, toStation);
+        }
+    }
+
+    @Override
+    public List<Journey> journeys(String fromStation, String toStation, int departure) {
+        final long start = Metrics.start();
+        try {
+            final State state = timetabled();
+            final int from = station(state.graph, fromStation);
+            final int to = station(state.graph, toStation);
+            return from == -1 || to == -1 ? new ArrayList<>() : state.timetable.journeys(from, to, departure, JOURNEY_CHANGES);
+        } finally {
+            Metrics.JOURNEYS.stop(start, fromStation, toStation);
+        }
+    }
+
+    /**
+     * @param departure The time as H:MM
+     * @return The text of {@link #journeys(String, String, int)}, empty if a station or the time is unknown
+     */
+    public String showJourneys(String fromStation, String toStation, String departure) {
+        try {
+            return RouteText.journeys(journeys(fromStation, toStation, Timetable.minute(departure)));
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Finds every station reachable within a travel time budget, in one bounded search
+     * @param fromStation The start station
+     * @param minutes The most minutes of a route
+     * @param stepFree Whether routes must be accessible, see {@link #accessibleRoute(String, String)}
+     * @return The reachable stations with their minutes and changes, nearest first, or null if the station is unknown
+     */
+    public Isochrone reachable(String fromStation, int minutes, boolean stepFree) {
+        return reachable(Collections.singletonList(fromStation), minutes, stepFree);
+    }
+
+    /**
+     * Finds every station reachable within a travel time budget from the nearest of some start stations
+     * @param fromStations The start stations
+     * @param minutes The most minutes of a route
+     * @param stepFree Whether routes must be accessible, see {@link #accessibleRoute(String, String)}
+     * @return The reachable stations with their minutes, changes and start station, nearest first,
+     * or null if a station is unknown
+     */
+    public Isochrone reachable(List<String> fromStations, int minutes, boolean stepFree) {
+        final long start = Metrics.start();
+        try {
+            final StationGraph graph = this.state.graph;
+            final int[] sources = new int[fromStations.size()];
+            for (int i = 0; i < sources.length; i++)
+                if ((sources[i] = station(graph, fromStations.get(i))) == -1) return null;
+            return new Dijkstra(graph).reachable(sources, minutes, stepFree);
+        } finally {
+            Metrics.REACHABLE.stop(start, fromStations.isEmpty() ? null : fromStations.get(0), null);
+        }
+    }
+
+    /**
+     * @return The text of {@link #reachable(String, int, boolean)}, empty if the station is unknown
+     */
+    public String showReachable(String fromStation, int minutes, boolean stepFree) {
+        final Isochrone isochrone = reachable(fromStation, minutes, stepFree);
+        return isochrone == null ? "" : RouteText.reachable(isochrone);
+    }
+
+    @Override
+    public List<Path> routes(List<RouteQuery> queries) {
+        return routes(state, queries);
+    }
+
+    /**
+     * The {@link #routes(List)} as routes, so that the station ids of the paths are named by the graph they were found on
+     * @param queries The origin-destination pairs and their route modes
+     * @return The route of each query in the same order, null where a station is unknown or no route exists
+     */
+    public List<Route> routeList(List<RouteQuery> queries) {
+        final State state = this.state;
+        final List<Route> routes = new ArrayList<>();
+        routes(state, queries).forEach(it -> routes.add(it == null ? null : Route.of(state.graph, it)));
+        return routes;
+    }
+
+    private List<Path> routes(State state, List<RouteQuery> queries) {
+        final long start = Metrics.start();
+        try {
+            final StationGraph graph = state.graph;
+            final Router router = state.router;
+            final Map<Long, List<Integer>> origins = new HashMap<>(); // (origin, mode) -> query indices
+            final Path[] paths = new Path[queries.size()];
+            final int[] froms = new int[queries.size()];
+            final int[] tos = new int[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                final RouteQuery query = queries.get(i);
+                final int from = froms[i] = station(graph, query.from());
+                if (from == -1 || (tos[i] = station(graph, query.to())) == -1) continue;
+                origins.computeIfAbsent(((long) from << RouteMode.BITS) | query.mode().ordinal(), k -> new ArrayList<>()).add(i);
+            }
+            origins.values().parallelStream().forEach(group -> {
+                final RouteMode mode = queries.get(group.get(0)).mode();
+                final int from = froms[group.get(0)];
+                final int[] targets = group.stream().mapToInt(i -> tos[i]).toArray();
+                final Path[] found;
+                if (group.size() > 1 && !(router instanceof TravelTimeMatrix)) { // One search for the whole group
+                    final Dijkstra dijkstra = new Dijkstra(graph);
+                    found = mode == RouteMode.STEP_FREE ? dijkstra.accessibleRoutes(from, targets) : dijkstra.routes(from, targets);
+                } else {
+                    found = new Path[targets.length];
+                    for (int i = 0; i < targets.length; i++)
+                        found[i] = mode == RouteMode.STEP_FREE ? accessibleRoute(graph, router, from, targets[i]) : router.route(from, targets[i]);
+                }
+                for (int i = 0; i < found.length; i++) paths[group.get(i)] = found[i];
+            });
+            return Arrays.asList(paths);
+        } finally {
+            Metrics.ROUTES.stop(start, queries.size() + " queries", null);
+        }
+    }
+
+    /**
+     * One version of the network: a graph with the router, the index and the timetable built for it, published
+     * together so that a query never pairs a graph with the router, index or timetable of another
+     */
+    private static final class State {
+        private final StationGraph graph;
+        private final Router router;
+        private final NetworkIndex index;
+        private final long version; // The route cache version of this network
+        private final Timetable timetable; // Null until the first timetabled query unless one is given
+
+        private State(StationGraph graph, Router router, NetworkIndex index, long version, Timetable timetable) {
+            this.graph = graph;
+            this.router = router;
+            this.index = index;
+            this.version = version;
+            this.timetable = timetable;
+        }
+
+        private State with(Router router) {
+            return new State(graph, router, index, version, timetable);
+        }
+
+        private State with(Timetable timetable) {
+            return new State(graph, router, index, version, timetable);
+        }
     }
 }
@@ -0,0 +1,148 @@
+package com.marufeb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A single pass, streaming UTF-8 CSV reader.
+ * The file is read through a fixed size buffer and parsed by a small state machine, so memory doesn't grow
+ * with the file. Quoted fields may hold commas, line breaks and doubled quotes. Fields are trimmed,
+ * carriage returns, byte order marks and blank lines are ignored, so a header is the first row with text.
+ */
+final class CsvReader {
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Receives the rows of the file
+     */
+    interface Handler {
+        /**
+         * @param line The line number the row starts on, from 1
+         * @param fields The fields of the row, only valid during the call
+         */
+        void row(int line, List<String> fields);
+    }
+
+    private final Handler handler;
+    private final List<String> problems;
+    private final String name;
+    private boolean header; // The next row is the header, to skip
+    private final ArrayList<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private boolean quoted = false; // Inside quotes
+    private boolean quote = false; // The previous character closed or escaped a quote
+    private int line = 1;
+    private int rowLine = 1;
+
+    private CsvReader(String name, boolean header, List<String> problems, Handler handler) {
+        this.name = name;
+        this.header = header;
+        this.problems = problems;
+        this.handler = handler;
+    }
+
+    /**
+     * Reads a file
+     * @param file The CSV file
+     * @param header Whether the first row is a header, not passed to the handler
+     * @param checksum Updated with the bytes of the file
+     * @param problems Receives the malformed input found, prefixed by file name and line number
+     * @param handler Receives the rows
+     * @throws IOException If the file can't be read
+     */
+    static void read(File file, boolean header, CRC32 checksum, List<String> problems, Handler handler) throws IOException {
+        final CsvReader reader = new CsvReader(file.getName(), header, problems, handler);
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER);
+        final CharBuffer chars = CharBuffer.allocate(BUFFER);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            boolean end = false;
+            while (!end) {
+                final int start = bytes.position();
+                end = channel.read(bytes) == -1;
+                final ByteBuffer read = bytes.duplicate();
+                read.flip().position(start);
+                checksum.update(read);
+                bytes.flip();
+                decoder.decode(bytes, chars, end);
+                if (end) decoder.flush(chars);
+                chars.flip();
+                reader.parse(chars);
+                chars.clear();
+                bytes.compact();
+            }
+        }
+        reader.finish();
+    }
+
+    private void parse(CharBuffer chars) {
+        while (chars.hasRemaining()) {
+            final char c = chars.get();
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                    quote = true;
+                } else {
+                    if (c == '\n') line++;
+                    field.append(c);
+                }
+                continue;
+            }
+            if (c == '"') {
+                if (quote) field.append('"'); // A doubled quote
+                else if (field.toString().trim().isEmpty()) field.setLength(0);
+                else problems.add(name + ":" + line + ": stray quote");
+                quoted = true;
+                quote = false;
+                continue;
+            }
+            quote = false;
+            switch (c) {
+                case ',':
+                    endField();
+                    break;
+                case '\n':
+                    endRow();
+                    line++;
+                    rowLine = line;
+                    break;
+                case '\r':
+                case '\uFEFF': // Byte order mark
+                    break;
+                default:
+                    field.append(c);
+            }
+        }
+    }
+
+    private void endField() {
+        fields.add(field.toString().trim());
+        field.setLength(0);
+    }
+
+    private void endRow() {
+        endField();
+        if (fields.size() > 1 || !fields.get(0).isEmpty()) {
+            if (header) header = false;
+            else handler.row(rowLine, fields);
+        }
+        fields.clear();
+    }
+
+    private void finish() {
+        if (quoted) problems.add(name + ":" + rowLine + ": unterminated quote");
+        if (field.length() > 0 || !fields.isEmpty()) endRow();
+    }
+}
@@ -0,0 +1,395 @@
+package com.marufeb;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap Dijkstra over the whole station graph, interchanges included.
+ * With {@link Landmarks} it runs as A* and settles only the stations that can still improve the route.
+ * The search state lives in the calling thread's {@link SearchSpace}, so one instance serves any number of threads.
+ */
+public final class Dijkstra implements Router {
+    static final int INFINITY = Integer.MAX_VALUE;
+    /* The low bits of the search keys of reachable(), counting changes */
+    private static final int CHANGE_BITS = 8;
+    private static final int CHANGE_MASK = (1 << CHANGE_BITS) - 1;
+
+    private final StationGraph graph;
+    private final Landmarks landmarks;
+
+    public Dijkstra(StationGraph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * @param graph The graph to search
+     * @param landmarks The A* heuristic, or null for plain Dijkstra
+     */
+    public Dijkstra(StationGraph graph, Landmarks landmarks) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+    }
+
+    /**
+     * Finds the fastest path. O((V + E) log V)
+     */
+    @Override
+    public Path route(int from, int to) {
+        final SearchSpace space = SearchSpace.of(SearchSpace.FORWARD, graph.stationCount());
+        final MinHeap heap = space.heap;
+        space.set(from, 0, -1);
+        heap.push(estimate(from, to), from);
+        int settled = 0;
+        int relaxed = 0;
+        while (!heap.isEmpty()) {
+            final long entry = heap.pop();
+            final int v = MinHeap.value(entry);
+            final int minutes = space.key(v);
+            if (MinHeap.key(entry) - estimate(v, to) > minutes) continue; // Stale entry
+            settled++;
+            if (v == to) {
+                Metrics.DIJKSTRA.record(settled, relaxed);
+                return path(space, to);
+            }
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                if (!graph.open(e)) continue;
+                relaxed++;
+                final int w = graph.target(e);
+                final int candidate = minutes + graph.minutes(e);
+                if (candidate < space.key(w)) {
+                    space.set(w, candidate, v);
+                    heap.push(candidate + estimate(w, to), w);
+                }
+            }
+        }
+        Metrics.DIJKSTRA.record(settled, relaxed);
+        return null;
+    }
+
+    /**
+     * Finds the fastest paths from one station to many, settling stations until every target is settled.
+     * O((V + E) log V) at most, however many targets
+     * @param from The start station id
+     * @param targets The destination station ids
+     * @return The fastest path to each target, null where it can't be reached
+     */
+    public Path[] routes(int from, int[] targets) {
+        final SearchSpace space = SearchSpace.of(SearchSpace.FORWARD, graph.stationCount());
+        final SearchSpace pending = SearchSpace.of(SearchSpace.SCRATCH, graph.stationCount()); // Key 1 until settled
+        int remaining = 0;
+        for (int t : targets)
+            if (!pending.visited(t)) {
+                pending.set(t, 1, -1);
+                remaining++;
+            }
+        final MinHeap heap = space.heap;
+        space.set(from, 0, -1);
+        heap.push(0, from);
+        while (!heap.isEmpty() && remaining > 0) {
+            final long entry = heap.pop();
+            final int v = MinHeap.value(entry);
+            final int minutes = space.key(v);
+            if (MinHeap.key(entry) > minutes) continue;
+            if (pending.key(v) == 1) {
+                pending.set(v, 0, -1);
+                remaining--;
+            }
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                if (!graph.open(e)) continue;
+                final int w = graph.target(e);
+                final int candidate = minutes + graph.minutes(e);
+                if (candidate < space.key(w)) {
+                    space.set(w, candidate, v);
+                    heap.push(candidate, w);
+                }
+            }
+        }
+        final Path[] paths = new Path[targets.length];
+        for (int i = 0; i < targets.length; i++)
+            if (pending.key(targets[i]) == 0) paths[i] = path(space, targets[i]);
+        return paths;
+    }
+
+    /**
+     * The one to many form of {@link #accessibleRoute(int, int)}
+     * @param from The start station id
+     * @param targets The destination station ids
+     * @return The fastest accessible path to each target, null where there is none
+     */
+    public Path[] accessibleRoutes(int from, int[] targets) {
+        final Path[] paths = new Path[targets.length];
+        if (!graph.stepFree(from)) return paths;
+        final SearchSpace space = SearchSpace.of(SearchSpace.FORWARD, graph.edgeCount());
+        final SearchSpace pending = SearchSpace.of(SearchSpace.SCRATCH, graph.stationCount()); // Key 1 until reached, then the parent is the last edge
+        int remaining = 0;
+        for (int t : targets)
+            if (t != from && graph.stepFree(t) && !pending.visited(t)) {
+                pending.set(t, 1, -1);
+                remaining++;
+            }
+        final MinHeap heap = space.heap;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++) {
+            if (!graph.open(e)) continue;
+            space.set(e, graph.minutes(e), -1);
+            heap.push(graph.minutes(e), e);
+        }
+        while (!heap.isEmpty() && remaining > 0) {
+            final long entry = heap.pop();
+            final int e = MinHeap.value(entry);
+            final int v = graph.target(e);
+            final int minutes = space.key(e);
+            if (MinHeap.key(entry) > minutes) continue;
+            if (pending.key(v) == 1) {
+                pending.set(v, 0, e);
+                remaining--;
+            }
+            final boolean change = graph.stepFree(v);
+            for (int f = graph.firstEdge(v); f < graph.endEdge(v); f++) {
+                if (!graph.open(f) || (!change && graph.lineOf(f) != graph.lineOf(e))) continue;
+                final int candidate = minutes + graph.minutes(f);
+                if (candidate < space.key(f)) {
+                    space.set(f, candidate, e);
+                    heap.push(candidate, f);
+                }
+            }
+        }
+        for (int i = 0; i < targets.length; i++) {
+            final int t = targets[i];
+            if (t == from && graph.stepFree(t)) paths[i] = Path.of(graph, new int[]{from});
+            else if (pending.visited(t) && pending.key(t) == 0) paths[i] = edgePath(space, pending.parent(t));
+        }
+        return paths;
+    }
+
+    /**
+     * Finds the fastest route that boards, alights and changes only at step-free stations.
+     * The search runs over edges rather than stations so it knows the line being ridden:
+     * staying on board through any station is allowed, changing line only where {@link StationGraph#stepFree(int)}.
+     * O((E + sum of squared degrees) log E)
+     * @param from The start station id
+     * @param to The destination station id
+     * @return The fastest accessible path, or null if there is none
+     */
+    public Path accessibleRoute(int from, int to) {
+        if (!graph.stepFree(from) || !graph.stepFree(to)) return null;
+        if (from == to) return Path.of(graph, new int[]{from});
+        final SearchSpace space = SearchSpace.of(SearchSpace.FORWARD, graph.edgeCount());
+        final MinHeap heap = space.heap;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++) {
+            if (!graph.open(e)) continue;
+            space.set(e, graph.minutes(e), -1);
+            heap.push(graph.minutes(e) + estimate(graph.target(e), to), e);
+        }
+        int settled = 0;
+        int relaxed = 0;
+        while (!heap.isEmpty()) {
+            final long entry = heap.pop();
+            final int e = MinHeap.value(entry);
+            final int v = graph.target(e);
+            final int minutes = space.key(e);
+            if (MinHeap.key(entry) - estimate(v, to) > minutes) continue;
+            settled++;
+            if (v == to) {
+                Metrics.ACCESSIBLE.record(settled, relaxed);
+                return edgePath(space, e);
+            }
+            final boolean change = graph.stepFree(v);
+            for (int f = graph.firstEdge(v); f < graph.endEdge(v); f++) {
+                if (!graph.open(f) || (!change && graph.lineOf(f) != graph.lineOf(e))) continue;
+                relaxed++;
+                final int candidate = minutes + graph.minutes(f);
+                if (candidate < space.key(f)) {
+                    space.set(f, candidate, e);
+                    heap.push(candidate + estimate(graph.target(f), to), f);
+                }
+            }
+        }
+        Metrics.ACCESSIBLE.record(settled, relaxed);
+        return null;
+    }
+
+    /**
+     * Finds the fewest changes of any route, riding through every station, over edges so the line ridden is known.
+     * O((E + sum of squared degrees) log E)
+     * @param from The start station id
+     * @param to The destination station id
+     * @return The fewest changes, or -1 if there is no route
+     */
+    public int fewestChanges(int from, int to) {
+        if (from == to) return 0;
+        final SearchSpace space = SearchSpace.of(SearchSpace.FORWARD, graph.edgeCount());
+        final MinHeap heap = space.heap;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++) {
+            if (!graph.open(e)) continue;
+            space.set(e, 0, -1);
+            heap.push(0, e);
+        }
+        while (!heap.isEmpty()) {
+            final long entry = heap.pop();
+            final int e = MinHeap.value(entry);
+            final int changes = space.key(e);
+            if (MinHeap.key(entry) > changes) continue;
+            final int v = graph.target(e);
+            if (v == to) return changes;
+            for (int f = graph.firstEdge(v); f < graph.endEdge(v); f++) {
+                if (!graph.open(f)) continue;
+                final int candidate = changes + (graph.lineOf(f) == graph.lineOf(e) ? 0 : 1);
+                if (candidate < space.key(f)) {
+                    space.set(f, candidate, e);
+                    heap.push(candidate, f);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds every station reachable within a budget from the nearest of some start stations, in one bounded sweep
+     * which stops once the next station is over the budget. The search runs over edges to know the line ridden,
+     * ordered by minutes and then changes, so each station gets the fewest changes among its fastest routes.
+     * O((E + sum of squared degrees) log E) over the part of the graph within the budget
+     * @param sources The start station ids
+     * @param budget The most minutes of a route
+     * @param stepFree Whether routes must board, alight and change only at step-free stations, as in
+     * {@link #accessibleRoute(int, int)}; then only step-free stations are reached
+     * @return The reachable stations, nearest first
+     */
+    public Isochrone reachable(int[] sources, int budget, boolean stepFree) {
+        final int limit = Math.min(budget, Integer.MAX_VALUE >> CHANGE_BITS);
+        final SearchSpace space = SearchSpace.of(SearchSpace.FORWARD, graph.edgeCount()); // Key: minutes << 8 | changes, parent: the source
+        final SearchSpace best = SearchSpace.of(SearchSpace.SCRATCH, graph.stationCount()); // The same, per station
+        final MinHeap heap = space.heap;
+        int[] reached = new int[16];
+        int size = 0;
+        for (int s : sources) {
+            if (graph.closed(s) || (stepFree && !graph.stepFree(s)) || best.visited(s)) continue;
+            best.set(s, 0, s);
+            if (size == reached.length) reached = Arrays.copyOf(reached, size * 2);
+            reached[size++] = s;
+            for (int e = graph.firstEdge(s); e < graph.endEdge(s); e++) {
+                final int key = graph.minutes(e) << CHANGE_BITS;
+                if (!graph.open(e) || graph.minutes(e) > limit || key >= space.key(e)) continue;
+                space.set(e, key, s);
+                heap.push(key, e);
+            }
+        }
+        int settled = 0;
+        int relaxed = 0;
+        while (!heap.isEmpty()) {
+            final long entry = heap.pop();
+            final int e = MinHeap.value(entry);
+            final int key = space.key(e);
+            if (MinHeap.key(entry) > key) continue;
+            settled++;
+            final int v = graph.target(e);
+            final boolean change = !stepFree || graph.stepFree(v);
+            if (change && key < best.key(v)) {
+                if (!best.visited(v)) {
+                    if (size == reached.length) reached = Arrays.copyOf(reached, size * 2);
+                    reached[size++] = v;
+                }
+                best.set(v, key, space.parent(e));
+            }
+            for (int f = graph.firstEdge(v); f < graph.endEdge(v); f++) {
+                final boolean same = graph.lineOf(f) == graph.lineOf(e);
+                if (!graph.open(f) || (!same && !change)) continue;
+                relaxed++;
+                if ((key >>> CHANGE_BITS) + graph.minutes(f) > limit) continue;
+                final int changes = Math.min((key & CHANGE_MASK) + (same ? 0 : 1), CHANGE_MASK);
+                final int candidate = ((key >>> CHANGE_BITS) + graph.minutes(f)) << CHANGE_BITS | changes;
+                if (candidate < space.key(f)) {
+                    space.set(f, candidate, space.parent(e));
+                    heap.push(candidate, f);
+                }
+            }
+        }
+        Metrics.ISOCHRONE.record(settled, relaxed);
+
+        final long[] order = new long[size]; // Nearest first, then by id
+        for (int i = 0; i < size; i++) order[i] = (long) best.key(reached[i]) << 32 | reached[i];
+        Arrays.sort(order);
+        final int[] stations = new int[size];
+        final int[] minutes = new int[size];
+        final int[] changes = new int[size];
+        final int[] from = new int[size];
+        for (int i = 0; i < size; i++) {
+            final int v = (int) order[i];
+            stations[i] = v;
+            minutes[i] = best.key(v) >>> CHANGE_BITS;
+            changes[i] = best.key(v) & CHANGE_MASK;
+            from[i] = best.parent(v);
+        }
+        return new Isochrone(graph, budget, stations, minutes, changes, from);
+    }
+
+    /**
+     * Keeps the landmarks while travel times only grow, since their tables remain lower bounds,
+     * and recomputes them otherwise. O(1), or O(k (V + E) log V) when something became faster
+     */
+    @Override
+    public Dijkstra update(StationGraph.Update update) {
+        final StationGraph graph = update.build();
+        if (landmarks == null) return new Dijkstra(graph);
+        return new Dijkstra(graph, update.faster() ? Landmarks.of(graph, landmarks.size()) : landmarks);
+    }
+
+    /**
+     * Computes the travel time from one station to every other. O((V + E) log V)
+     * @param from The start station id
+     * @return The minutes to every station, {@link #INFINITY} where unreachable
+     */
+    public int[] minutesFrom(int from) {
+        return minutesFrom(from, null);
+    }
+
+    /**
+     * Computes the travel time from one station to every other. O((V + E) log V)
+     * @param from The start station id
+     * @param firstHop If not null, receives the station after {@code from} on the route to every station, -1 where there is none
+     * @return The minutes to every station, {@link #INFINITY} where unreachable
+     */
+    public int[] minutesFrom(int from, int[] firstHop) {
+        final int n = graph.stationCount();
+        final int[] minutes = new int[n];
+        Arrays.fill(minutes, INFINITY);
+        if (firstHop != null) Arrays.fill(firstHop, -1);
+        final MinHeap heap = SearchSpace.of(SearchSpace.FORWARD, 0).heap;
+        minutes[from] = 0;
+        heap.push(0, from);
+        while (!heap.isEmpty()) {
+            final long entry = heap.pop();
+            final int v = MinHeap.value(entry);
+            if (MinHeap.key(entry) > minutes[v]) continue;
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                if (!graph.open(e)) continue;
+                final int w = graph.target(e);
+                final int candidate = minutes[v] + graph.minutes(e);
+                if (candidate < minutes[w]) {
+                    minutes[w] = candidate;
+                    if (firstHop != null) firstHop[w] = v == from ? w : firstHop[v];
+                    heap.push(candidate, w);
+                }
+            }
+        }
+        return minutes;
+    }
+
+    private int estimate(int station, int target) {
+        return landmarks == null ? 0 : landmarks.estimate(station, target);
+    }
+
+    private Path edgePath(SearchSpace space, int last) {
+        int length = 0;
+        for (int e = last; e != -1; e = space.parent(e)) length++;
+        final int[] edges = new int[length];
+        for (int e = last; e != -1; e = space.parent(e)) edges[--length] = e;
+        return Path.ofEdges(graph, edges);
+    }
+
+    private Path path(SearchSpace space, int to) {
+        int length = 0;
+        for (int v = to; v != -1; v = space.parent(v)) length++;
+        final int[] stations = new int[length];
+        for (int v = to; v != -1; v = space.parent(v)) stations[--length] = v;
+        return Path.of(graph, stations);
+    }
+}
@@ -0,0 +1,49 @@
+package com.marufeb;
+
+/**
+ * A change of line between two legs of a route
+ */
+public final class Interchange {
+    private final int station;
+    private final String stationName;
+    private final int fromLine;
+    private final int toLine;
+    private final boolean stepFree;
+    private final int minute;
+
+    Interchange(int station, String stationName, int fromLine, int toLine, boolean stepFree, int minute) {
+        this.station = station;
+        this.stationName = stationName;
+        this.fromLine = fromLine;
+        this.toLine = toLine;
+        this.stepFree = stepFree;
+        this.minute = minute;
+    }
+
+    public int station() {
+        return station;
+    }
+
+    public String stationName() {
+        return stationName;
+    }
+
+    public int fromLine() {
+        return fromLine;
+    }
+
+    public int toLine() {
+        return toLine;
+    }
+
+    public boolean stepFree() {
+        return stepFree;
+    }
+
+    /**
+     * @return The minutes from the start of the route at which the change happens
+     */
+    public int minute() {
+        return minute;
+    }
+}
@@ -0,0 +1,67 @@
+package com.marufeb;
+
+/**
+ * The stations reachable within a travel time budget from one or more start stations, nearest first,
+ * each with the minutes and the fewest changes of its fastest route and the start station it is reached from.
+ */
+public final class Isochrone {
+    private final StationGraph graph;
+    private final int budget;
+    private final int[] stations;
+    private final int[] minutes;
+    private final int[] changes;
+    private final int[] sources;
+
+    Isochrone(StationGraph graph, int budget, int[] stations, int[] minutes, int[] changes, int[] sources) {
+        this.graph = graph;
+        this.budget = budget;
+        this.stations = stations;
+        this.minutes = minutes;
+        this.changes = changes;
+        this.sources = sources;
+    }
+
+    /**
+     * @return The travel time budget in minutes
+     */
+    public int budget() {
+        return budget;
+    }
+
+    /**
+     * @return The number of reachable stations, the start stations included
+     */
+    public int size() {
+        return stations.length;
+    }
+
+    public int station(int index) {
+        return stations[index];
+    }
+
+    public String stationName(int index) {
+        return graph.stationName(stations[index]);
+    }
+
+    public int minutes(int index) {
+        return minutes[index];
+    }
+
+    public int changes(int index) {
+        return changes[index];
+    }
+
+    /**
+     * @return The start station the station at an index is reached from
+     */
+    public int source(int index) {
+        return sources[index];
+    }
+
+    /**
+     * @return The station ids, nearest first
+     */
+    public int[] stations() {
+        return stations.clone();
+    }
+}
@@ -0,0 +1,58 @@
+package com.marufeb;
+
+import java.util.List;
+
+/**
+ * A timetabled journey: the trains taken, each a {@link Leg} whose departure and arrival are minutes of the day,
+ * with the waits and changes between them.
+ */
+public final class Journey {
+    private final StationGraph graph;
+    private final Leg[] legs;
+
+    Journey(StationGraph graph, Leg[] legs) {
+        this.graph = graph;
+        this.legs = legs;
+    }
+
+    /**
+     * @return The minute of the day the first train leaves
+     */
+    public int departure() {
+        return legs[0].departure();
+    }
+
+    /**
+     * @return The minute of the day the last train arrives
+     */
+    public int arrival() {
+        return legs[legs.length - 1].arrival();
+    }
+
+    /**
+     * @return The minutes from the first departure to the arrival, waits included
+     */
+    public int minutes() {
+        return arrival() - departure();
+    }
+
+    public int changes() {
+        return legs.length - 1;
+    }
+
+    public int from() {
+        return legs[0].from();
+    }
+
+    public int to() {
+        return legs[legs.length - 1].to();
+    }
+
+    public List<Leg> legs() {
+        return List.of(legs);
+    }
+
+    public String stationName(int station) {
+        return graph.stationName(station);
+    }
+}
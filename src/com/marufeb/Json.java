@@ -0,0 +1,214 @@
+package com.marufeb;
+
+import java.util.*;
+
+/**
+ * The bit of JSON the server speaks: objects become maps keeping their key order, arrays lists,
+ * numbers doubles, and strings, booleans and null themselves.
+ */
+final class Json {
+    /* The deepest nesting of objects and arrays parsed, so a hostile line can't overflow the stack */
+    static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private int at = 0;
+    private int depth = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text One JSON value
+     * @return The value
+     * @throws IllegalArgumentException If the text isn't a single JSON value, or nests deeper than {@link #MAX_DEPTH}
+     */
+    static Object parse(String text) {
+        final Json json = new Json(text);
+        final Object value = json.value();
+        json.space();
+        if (json.at != text.length()) throw json.error("unexpected text after the value");
+        return value;
+    }
+
+    /**
+     * Appends a value as JSON: maps, iterables, strings, numbers, booleans and null
+     */
+    static StringBuilder write(StringBuilder builder, Object value) {
+        if (value == null) return builder.append("null");
+        if (value instanceof String) return quote(builder, (String) value);
+        if (value instanceof Double && ((Double) value) == Math.rint((Double) value) && !((Double) value).isInfinite())
+            return builder.append(((Double) value).longValue());
+        if (value instanceof Number || value instanceof Boolean) return builder.append(value);
+        if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) builder.append(',');
+                first = false;
+                quote(builder, String.valueOf(entry.getKey())).append(':');
+                write(builder, entry.getValue());
+            }
+            return builder.append('}');
+        }
+        if (value instanceof Iterable) {
+            builder.append('[');
+            boolean first = true;
+            for (Object item : (Iterable<?>) value) {
+                if (!first) builder.append(',');
+                first = false;
+                write(builder, item);
+            }
+            return builder.append(']');
+        }
+        return quote(builder, value.toString());
+    }
+
+    private static StringBuilder quote(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+                    else builder.append(c);
+            }
+        }
+        return builder.append('"');
+    }
+
+    private Object value() {
+        space();
+        if (at == text.length()) throw error("unexpected end");
+        final char c = text.charAt(at);
+        switch (c) {
+            case '{':
+            case '[':
+                if (++depth > MAX_DEPTH) throw error("nested deeper than " + MAX_DEPTH);
+                final Object nested = c == '{' ? object() : array();
+                depth--;
+                return nested;
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("unexpected " + c);
+        }
+    }
+
+    private Map<String, Object> object() {
+        final Map<String, Object> object = new LinkedHashMap<>();
+        at++;
+        space();
+        if (peek() == '}') {
+            at++;
+            return object;
+        }
+        while (true) {
+            space();
+            if (peek() != '"') throw error("expected a key");
+            final String key = string();
+            space();
+            expect(':');
+            object.put(key, value());
+            space();
+            if (peek() == ',') at++;
+            else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        final List<Object> array = new ArrayList<>();
+        at++;
+        space();
+        if (peek() == ']') {
+            at++;
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            space();
+            if (peek() == ',') at++;
+            else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String string() {
+        final StringBuilder builder = new StringBuilder();
+        at++;
+        while (true) {
+            if (at >= text.length()) throw error("unterminated string");
+            final char c = text.charAt(at++);
+            if (c == '"') return builder.toString();
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (at >= text.length()) throw error("unterminated string");
+            final char escaped = text.charAt(at++);
+            switch (escaped) {
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (at + 4 > text.length()) throw error("bad escape");
+                    try {
+                        builder.append((char) Integer.parseInt(text.substring(at, at + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("bad escape");
+                    }
+                    at += 4;
+                    break;
+                default: builder.append(escaped);
+            }
+        }
+    }
+
+    private Double number() {
+        final int start = at;
+        while (at < text.length() && "+-0123456789.eE".indexOf(text.charAt(at)) != -1) at++;
+        try {
+            return Double.valueOf(text.substring(start, at));
+        } catch (NumberFormatException e) {
+            throw error("bad number");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, at)) throw error("unexpected " + text.charAt(at));
+        at += word.length();
+        return value;
+    }
+
+    private void space() {
+        while (at < text.length() && Character.isWhitespace(text.charAt(at))) at++;
+    }
+
+    private char peek() {
+        return at < text.length() ? text.charAt(at) : 0;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) throw error("expected " + c);
+        at++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("malformed JSON at " + at + ": " + message);
+    }
+}
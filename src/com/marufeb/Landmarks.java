@@ -0,0 +1,65 @@
+package com.marufeb;
+
+import java.util.Arrays;
+
+/**
+ * The ALT lower bound for A*: the travel times from a few far apart landmark stations,
+ * combined through the triangle inequality. Segments run both ways so a single table per landmark is enough.
+ */
+public final class Landmarks {
+    private final int[][] minutes;
+
+    private Landmarks(int[][] minutes) {
+        this.minutes = minutes;
+    }
+
+    /**
+     * Picks landmarks by farthest selection and computes their travel time tables. O(k (V + E) log V)
+     * @param graph The graph
+     * @param count The number of landmarks
+     * @return The heuristic
+     */
+    public static Landmarks of(StationGraph graph, int count) {
+        final Dijkstra dijkstra = new Dijkstra(graph);
+        final int n = graph.stationCount();
+        count = Math.min(count, n);
+        final int[][] tables = new int[count][];
+        final int[] closest = new int[n]; // Distance to the nearest chosen landmark
+        Arrays.fill(closest, Dijkstra.INFINITY);
+        int landmark = 0;
+        for (int i = 0; i < count; i++) {
+            tables[i] = dijkstra.minutesFrom(landmark);
+            int farthest = -1;
+            for (int v = 0; v < n; v++) {
+                closest[v] = Math.min(closest[v], tables[i][v]);
+                // Unreachable stations are picked first so that every component gets a landmark, closed ones never
+                if (closest[v] > 0 && !graph.closed(v) && (farthest == -1 || closest[v] > closest[farthest])) farthest = v;
+            }
+            if (farthest == -1) return new Landmarks(Arrays.copyOf(tables, i + 1));
+            landmark = farthest;
+        }
+        return new Landmarks(tables);
+    }
+
+    /**
+     * @return The number of landmarks
+     */
+    int size() {
+        return minutes.length;
+    }
+
+    /**
+     * @return A lower bound of the minutes between the two stations
+     */
+    int estimate(int station, int target) {
+        int best = 0;
+        for (int[] table : minutes) {
+            final int a = table[station];
+            final int b = table[target];
+            if (a == Dijkstra.INFINITY || b == Dijkstra.INFINITY) continue;
+            final int bound = a > b ? a - b : b - a;
+            if (bound > best) best = bound;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,61 @@
+package com.marufeb;
+
+/**
+ * A part of a route ridden on one line without changing
+ */
+public final class Leg {
+    private final int line;
+    private final String lineName;
+    private final int[] stations;
+    private final int departure;
+    private final int arrival;
+
+    Leg(int line, String lineName, int[] stations, int departure, int arrival) {
+        this.line = line;
+        this.lineName = lineName;
+        this.stations = stations;
+        this.departure = departure;
+        this.arrival = arrival;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    public String lineName() {
+        return lineName;
+    }
+
+    /**
+     * @return The station ids of the leg, boarding and alighting stations included
+     */
+    public int[] stations() {
+        return stations.clone();
+    }
+
+    public int from() {
+        return stations[0];
+    }
+
+    public int to() {
+        return stations[stations.length - 1];
+    }
+
+    /**
+     * @return The minutes from the start of the route at which the leg departs, or the minute of the day in a {@link Journey}
+     */
+    public int departure() {
+        return departure;
+    }
+
+    /**
+     * @return The minutes from the start of the route at which the leg arrives, or the minute of the day in a {@link Journey}
+     */
+    public int arrival() {
+        return arrival;
+    }
+
+    public int minutes() {
+        return arrival - departure;
+    }
+}
@@ -0,0 +1,386 @@
+package com.marufeb;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Query instrumentation: latency histograms per {@link Controller} operation and per load or build step,
+ * stations settled and edges relaxed per search, counters and gauges like the route cache hit rate, and a log
+ * of the slowest queries. Everything is published as MXBeans under {@code com.marufeb} and as a text dump.
+ * Run with {@code -Dwmr.metrics=false} to switch it off: the flag is a static final, so the JIT drops every
+ * recording site and the searches count nothing. Queries slower than {@code -Dwmr.metrics.slowMillis}, 100 by
+ * default, are kept in the slow query log.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("wmr.metrics"));
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(Long.getLong("wmr.metrics.slowMillis", 100));
+    private static final int SLOW_LOG = 32;
+
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final String[] slow = new String[SLOW_LOG]; // A ring, guarded by itself
+    private static int slowCount = 0;
+
+    static {
+        register("com.marufeb:type=Metrics", new Bean());
+    }
+
+    /* Controller operations */
+    public static final Histogram LIST_TERMINI = timer("controller.listTermini");
+    public static final Histogram LIST_STATIONS_IN_LINE = timer("controller.listStationsInLine");
+    public static final Histogram LIST_ALL_LINES = timer("controller.listAllLines");
+    public static final Histogram SHOW_ACCESSIBLE_PATH = timer("controller.showAccessiblePath");
+    public static final Histogram SHOW_ALL_PATHS = timer("controller.showAllPaths");
+    public static final Histogram SHOW_SHORTEST_PATH = timer("controller.showShortestPath");
+    public static final Histogram ROUTES = timer("controller.routes");
+    public static final Histogram JOURNEYS = timer("controller.journeys");
+    public static final Histogram REACHABLE = timer("controller.reachable");
+    public static final Histogram RANKED_ROUTES = timer("controller.rankedRoutes");
+    public static final LongAdder UNKNOWN_STATIONS = counter("controller.unknownStations");
+
+    /* The query server */
+    public static final Histogram SERVER_REQUESTS = timer("server.request");
+    public static final LongAdder SERVER_ERRORS = counter("server.errors");
+
+    /* Loading and building */
+    public static final Histogram LOAD = timer("load.csv");
+    public static final Histogram SNAPSHOT = timer("load.snapshot");
+    public static final Histogram BUILD_INDEX = timer("build.index");
+    public static final Histogram BUILD_ROUTER = timer("build.router");
+    public static final Histogram BUILD_SEARCH = timer("build.stationSearch");
+    public static final Histogram BUILD_MATRIX = timer("build.matrix");
+    public static final Histogram BUILD_TIMETABLE = timer("build.timetable");
+    public static final Histogram UPDATE = timer("build.update");
+
+    /* Searches */
+    public static final Search DIJKSTRA = new Search("search.dijkstra");
+    public static final Search ACCESSIBLE = new Search("search.accessible");
+    public static final Search HIERARCHY = new Search("search.hierarchy");
+    public static final Search ENUMERATOR = new Search("search.enumerator");
+    public static final Search ISOCHRONE = new Search("search.isochrone");
+    public static final Search PARETO = new Search("search.pareto"); // Labels settled, edges relaxed
+    public static final Search CONNECTION_SCAN = new Search("search.connectionScan"); // Trains boarded, connections scanned
+
+    private Metrics() {
+    }
+
+    /**
+     * @return The start time of a timed step, 0 when the metrics are off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return The latency histogram of a name, in nanoseconds, created on first use
+     */
+    public static Histogram timer(String name) {
+        return histogram(name, "us");
+    }
+
+    /**
+     * @param name The name
+     * @param unit The unit of the dump and the MXBean, "us" for timers which record nanoseconds
+     * @return The histogram of a name, created on first use
+     */
+    public static Histogram histogram(String name, String unit) {
+        return histograms.computeIfAbsent(name, it -> {
+            final Histogram histogram = new Histogram(it, unit);
+            register("com.marufeb:type=Histogram,name=" + it, histogram);
+            return histogram;
+        });
+    }
+
+    /**
+     * @return The counter of a name, created on first use
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, it -> new LongAdder());
+    }
+
+    /**
+     * Publishes a value read when the metrics are looked at, replacing an earlier gauge of the same name
+     */
+    public static void gauge(String name, LongSupplier value) {
+        if (ENABLED) gauges.put(name, value);
+    }
+
+    /**
+     * @return Every metric as text, histograms in microseconds where they are timers
+     */
+    public static String dump() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-36s %10s %10s %10s %10s %10s %10s %10s%n",
+                "histogram", "count", "mean", "p50", "p90", "p99", "p999", "max"));
+        histograms.values().forEach(it -> {
+            if (it.getCount() > 0)
+                builder.append(String.format("%-36s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                        it.name + " (" + it.unit + ")", it.getCount(), it.getMean(), it.getP50(), it.getP90(),
+                        it.getP99(), it.getP999(), it.getMax()));
+        });
+        new Bean().getCounters().forEach((name, value) -> builder.append(String.format("%-36s %10d%n", name, value)));
+        final List<String> slowQueries = slowQueries();
+        if (!slowQueries.isEmpty()) builder.append("slow queries:\n");
+        slowQueries.forEach(it -> builder.append("  ").append(it).append('\n'));
+        return builder.toString();
+    }
+
+    /**
+     * Zeroes the histograms and counters and empties the slow query log
+     */
+    public static void reset() {
+        histograms.values().forEach(Histogram::reset);
+        counters.values().forEach(LongAdder::reset);
+        synchronized (slow) {
+            Arrays.fill(slow, null);
+            slowCount = 0;
+        }
+    }
+
+    /**
+     * @return The slowest queries, most recent first
+     */
+    public static List<String> slowQueries() {
+        final List<String> result = new ArrayList<>();
+        synchronized (slow) {
+            for (int i = 1; i <= Math.min(slowCount, SLOW_LOG); i++) result.add(slow[(slowCount - i) % SLOW_LOG]);
+        }
+        return result;
+    }
+
+    private static void register(String name, Object bean) {
+        if (!ENABLED) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+        } catch (JMException | SecurityException ignored) { // Already registered by another class loader, or not allowed
+        }
+    }
+
+    /**
+     * The JMX view of the counters, the gauges and the slow query log
+     */
+    public interface MetricsMXBean {
+        /**
+         * @return The counters and the current gauge values by name
+         */
+        Map<String, Long> getCounters();
+
+        List<String> getSlowQueries();
+
+        String dump();
+
+        void reset();
+    }
+
+    /**
+     * The JMX view of a histogram
+     */
+    public interface HistogramMXBean {
+        String getUnit();
+
+        long getCount();
+
+        double getMean();
+
+        double getP50();
+
+        double getP90();
+
+        double getP99();
+
+        double getP999();
+
+        double getMax();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            final Map<String, Long> result = new TreeMap<>();
+            counters.forEach((name, counter) -> result.put(name, counter.sum()));
+            gauges.forEach((name, gauge) -> result.put(name, gauge.getAsLong()));
+            return result;
+        }
+
+        @Override
+        public List<String> getSlowQueries() {
+            return slowQueries();
+        }
+
+        @Override
+        public String dump() {
+            return Metrics.dump();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+    /**
+     * A concurrent log-linear histogram of non-negative values: 16 buckets per power of two, so every value is
+     * kept within 1/16 of itself, like an HDR histogram with one significant digit. Recording is a couple of
+     * atomic increments and never allocates.
+     */
+    public static final class Histogram implements HistogramMXBean {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+
+        private final String name;
+        private final String unit;
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS) * SUB);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        /**
+         * Records a value, negative values as 0
+         */
+        public void record(long value) {
+            if (!ENABLED) return;
+            final long v = Math.max(0, value);
+            buckets.incrementAndGet(bucket(v));
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        /**
+         * Records the time since a {@link #start()}
+         */
+        public void stop(long start) {
+            stop(start, null, null);
+        }
+
+        /**
+         * Records the time since a {@link #start()}, logging the query if it was slow
+         * @param first The first argument of the query, or null
+         * @param second The second argument of the query, or null
+         */
+        public void stop(long start, String first, String second) {
+            if (!ENABLED) return;
+            final long elapsed = System.nanoTime() - start;
+            record(elapsed);
+            if (elapsed < SLOW) return;
+            final String query = String.format("%s(%s) %.1f ms", name.substring(name.lastIndexOf('.') + 1),
+                    first == null ? "" : second == null ? first : first + ", " + second, elapsed / 1e6);
+            synchronized (slow) {
+                slow[slowCount++ % SLOW_LOG] = query;
+            }
+        }
+
+        @Override
+        public String getUnit() {
+            return unit;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getMean() {
+            final long count = getCount();
+            return count == 0 ? 0 : scale(sum.sum()) / count;
+        }
+
+        @Override
+        public double getP50() {
+            return percentile(0.5);
+        }
+
+        @Override
+        public double getP90() {
+            return percentile(0.9);
+        }
+
+        @Override
+        public double getP99() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public double getP999() {
+            return percentile(0.999);
+        }
+
+        @Override
+        public double getMax() {
+            return scale(max.get());
+        }
+
+        /**
+         * @param quantile Between 0 and 1
+         * @return The middle of the bucket holding the quantile, in the unit of the histogram. O(buckets)
+         */
+        public double percentile(double quantile) {
+            final long count = getCount();
+            if (count == 0) return 0;
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(scale((lowest(i) + lowest(i + 1)) / 2), getMax());
+            }
+            return getMax();
+        }
+
+        private void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        private double scale(double value) {
+            return unit.equals("us") ? value / 1e3 : value;
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB) return (int) value;
+            final int exponent = 63 - Long.numberOfLeadingZeros(value); // At least SUB_BITS
+            return (exponent - SUB_BITS + 1) * SUB + (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+        }
+
+        private static double lowest(int bucket) {
+            if (bucket < SUB) return bucket;
+            final int exponent = bucket / SUB + SUB_BITS - 1;
+            return Math.scalb((double) (SUB + bucket % SUB), exponent - SUB_BITS);
+        }
+    }
+
+    /**
+     * The work of one kind of search: stations settled and edges relaxed per search
+     */
+    public static final class Search {
+        private final Histogram settled;
+        private final Histogram relaxed;
+
+        private Search(String name) {
+            settled = histogram(name + ".settled", "count");
+            relaxed = histogram(name + ".relaxed", "count");
+        }
+
+        public void record(int settled, int relaxed) {
+            if (!ENABLED) return;
+            this.settled.record(settled);
+            this.relaxed.record(relaxed);
+        }
+    }
+}
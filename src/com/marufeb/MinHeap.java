@@ -0,0 +1,68 @@
+package com.marufeb;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of (key, station) pairs packed into longs.
+ * Decrease-key is done by pushing a new entry, stale entries are skipped by the caller.
+ */
+final class MinHeap {
+    private long[] heap;
+    private int size = 0;
+
+    MinHeap(int capacity) {
+        heap = new long[Math.max(capacity, 16)];
+    }
+
+    void push(int key, int value) {
+        if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+        long entry = ((long) key << 32) | (value & 0xffffffffL);
+        int i = size++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * @return The smallest entry, use {@link #key(long)} and {@link #value(long)} to unpack it
+     */
+    long pop() {
+        final long top = heap[0];
+        final long last = heap[--size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    long peek() {
+        return heap[0];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    static int key(long entry) {
+        return (int) (entry >> 32);
+    }
+
+    static int value(long entry) {
+        return (int) entry;
+    }
+}
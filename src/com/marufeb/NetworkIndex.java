@@ -0,0 +1,298 @@
+package com.marufeb;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Lookup tables built once per graph, so that no query has to scan the segments:
+ * line names to line ids, every line to its stations in travel order with the
+ * minutes at which each is reached, and every station to the lines serving it.
+ * A line is laid out by a depth first walk from the first terminus of its segments in file order, so a branch
+ * follows the stations before the junction and the minutes are counted from the terminus, which makes them
+ * prefix sums along every branch. The walk is kept as a tree, with a k x k table of the fastest minutes between
+ * any two of the k stations of the line riding only that line.
+ */
+public final class NetworkIndex {
+    private final StationGraph graph;
+    private final Map<String, Integer> lineIds;
+    private final int[][] lineStations;
+    private final int[][] lineMinutes;
+    private final int[][] lineParents; // The position of the station each one is reached from, -1 for a root
+    private final int[][] lineTermini; // Positions
+    private final int[][] lineTables; // k x k minutes, row major by position
+    private final int[][] stationLines;
+    private final int[][] stationPositions; // The position on each line of stationLines
+
+    private NetworkIndex(StationGraph graph, Map<String, Integer> lineIds, int[][] lineStations, int[][] lineMinutes,
+                         int[][] lineParents, int[][] lineTermini, int[][] lineTables, int[][] stationLines,
+                         int[][] stationPositions) {
+        this.graph = graph;
+        this.lineIds = lineIds;
+        this.lineStations = lineStations;
+        this.lineMinutes = lineMinutes;
+        this.lineParents = lineParents;
+        this.lineTermini = lineTermini;
+        this.lineTables = lineTables;
+        this.stationLines = stationLines;
+        this.stationPositions = stationPositions;
+    }
+
+    /**
+     * Builds the index. Travel times are the timetabled ones, closures are ignored.
+     * O(V + E * lines per station + sum of k E log E over the lines, for their k stations and E segments)
+     * @param graph The graph
+     * @param segments The segments in file order, as (line, from, to, minutes) id quadruples
+     * @return The index
+     */
+    public static NetworkIndex of(StationGraph graph, int[] segments) {
+        final int n = graph.stationCount();
+        final int lineCount = graph.lineCount();
+        final Map<String, Integer> lineIds = new HashMap<>();
+        for (int l = 0; l < lineCount; l++) lineIds.putIfAbsent(normalise(graph.lineName(l)), l); // The first spelling
+
+        final int[][] stationLines = new int[n][];
+        final int[][] stationPositions = new int[n][];
+        for (int v = 0; v < n; v++) {
+            final int[] lines = new int[graph.endEdge(v) - graph.firstEdge(v)];
+            int count = 0;
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) lines[count++] = graph.lineOf(e);
+            stationLines[v] = Arrays.stream(lines, 0, count).sorted().distinct().toArray();
+            stationPositions[v] = new int[stationLines[v].length];
+        }
+
+        // The stations of each line in the order the file first mentions them
+        final List<List<Integer>> members = new ArrayList<>(lineCount);
+        for (int l = 0; l < lineCount; l++) members.add(new ArrayList<>());
+        final Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < segments.length; i += 4)
+            for (int v : new int[]{segments[i + 1], segments[i + 2]})
+                if (seen.add(((long) segments[i] << 32) | v)) members.get(segments[i]).add(v);
+
+        final int[][] lineStations = new int[lineCount][];
+        final int[][] lineMinutes = new int[lineCount][];
+        final int[][] lineParents = new int[lineCount][];
+        final int[][] lineTermini = new int[lineCount][];
+        final int[][] lineTables = new int[lineCount][];
+        for (int l = 0; l < lineCount; l++) {
+            final SearchSpace walked = SearchSpace.of(SearchSpace.SCRATCH, n); // Key: minutes from the terminus
+            final List<Integer> stations = members.get(l);
+            final int k = stations.size();
+            final int[] order = new int[k];
+            final int[] minutes = new int[k];
+            final int[] parents = new int[k];
+            final int[] stack = new int[k];
+            int size = 0;
+            // Termini first, so every component of the line starts from an end
+            for (boolean terminus : new boolean[]{true, false})
+                for (int root : stations) {
+                    if (walked.visited(root) || (terminus && neighbours(graph, root, l) != 1)) continue;
+                    int depth = 0;
+                    stack[depth++] = root;
+                    walked.set(root, 0, -1);
+                    while (depth > 0) {
+                        final int v = stack[--depth];
+                        final int p = walked.parent(v);
+                        stationPositions[v][Arrays.binarySearch(stationLines[v], l)] = size;
+                        parents[size] = p == -1 ? -1 : stationPositions[p][Arrays.binarySearch(stationLines[p], l)];
+                        order[size] = v;
+                        minutes[size++] = walked.key(v);
+                        // Pushed in reverse so the first segment of the file is walked first
+                        for (int e = graph.endEdge(v) - 1; e >= graph.firstEdge(v); e--) {
+                            final int w = graph.target(e);
+                            if (graph.lineOf(e) != l || walked.visited(w)) continue;
+                            walked.set(w, walked.key(v) + fastest(graph, v, w, l), v);
+                            stack[depth++] = w;
+                        }
+                    }
+                }
+            lineStations[l] = order;
+            lineMinutes[l] = minutes;
+            lineParents[l] = parents;
+            lineTermini[l] = termini(parents);
+        }
+        // Once every walk is done, as the tables search in the same scratch space
+        for (int l = 0; l < lineCount; l++) lineTables[l] = table(graph, l, lineStations[l], stationLines, stationPositions);
+        return new NetworkIndex(graph, lineIds, lineStations, lineMinutes, lineParents, lineTermini, lineTables,
+                stationLines, stationPositions);
+    }
+
+    /**
+     * The index of an updated graph. Closures are ignored and the walk of a line doesn't depend on travel times,
+     * so every line keeps its layout, and only the lines with a segment whose minutes changed are timed again.
+     * O(E + lines + sum of k E log E over the lines timed again)
+     * @param graph The graph after an update of the one indexed, see {@link StationGraph#update()}
+     * @return The index
+     */
+    public NetworkIndex update(StationGraph graph) {
+        final boolean[] touched = new boolean[graph.lineCount()];
+        for (int e = 0; e < graph.edgeCount(); e++)
+            if (graph.minutes(e) != this.graph.minutes(e)) touched[graph.lineOf(e)] = true;
+        final int[][] lineMinutes = this.lineMinutes.clone();
+        final int[][] lineTables = this.lineTables.clone();
+        for (int l = 0; l < touched.length; l++) {
+            if (!touched[l]) continue;
+            final int[] stations = lineStations[l];
+            final int[] parents = lineParents[l];
+            final int[] minutes = new int[stations.length];
+            for (int i = 0; i < stations.length; i++) // A preorder, so the parent is timed first
+                if (parents[i] != -1) minutes[i] = minutes[parents[i]] + fastest(graph, stations[parents[i]], stations[i], l);
+            lineMinutes[l] = minutes;
+            lineTables[l] = table(graph, l, stations, stationLines, stationPositions);
+        }
+        return new NetworkIndex(graph, lineIds, lineStations, lineMinutes, lineParents, lineTermini, lineTables,
+                stationLines, stationPositions);
+    }
+
+    /**
+     * @return The positions with at most one neighbour in the tree, in walk order
+     */
+    private static int[] termini(int[] parents) {
+        final int[] degree = new int[parents.length];
+        for (int i = 0; i < parents.length; i++)
+            if (parents[i] != -1) {
+                degree[i]++;
+                degree[parents[i]]++;
+            }
+        return IntStream.range(0, parents.length).filter(i -> degree[i] <= 1).toArray();
+    }
+
+    /**
+     * Fills the k x k table with a Dijkstra search from every station riding only the line, so that a loop or two
+     * branches joining again are counted, which the tree of the walk misses. O(k E log E) for the E segments of the line
+     */
+    private static int[] table(StationGraph graph, int line, int[] stations, int[][] stationLines, int[][] stationPositions) {
+        final int k = stations.length;
+        final int[] table = new int[k * k];
+        Arrays.fill(table, Dijkstra.INFINITY); // Between the parts of a line which doesn't connect
+        for (int i = 0; i < k; i++) {
+            final SearchSpace space = SearchSpace.of(SearchSpace.SCRATCH, graph.stationCount()); // Key: minutes from the station
+            final MinHeap heap = space.heap;
+            space.set(stations[i], 0, -1);
+            heap.push(0, stations[i]);
+            while (!heap.isEmpty()) {
+                final long top = heap.pop();
+                final int v = MinHeap.value(top);
+                final int minutes = MinHeap.key(top);
+                if (minutes > space.key(v)) continue;
+                table[i * k + stationPositions[v][Arrays.binarySearch(stationLines[v], line)]] = minutes;
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    final int w = graph.target(e);
+                    if (graph.lineOf(e) != line || minutes + graph.minutes(e) >= space.key(w)) continue;
+                    space.set(w, minutes + graph.minutes(e), v);
+                    heap.push(minutes + graph.minutes(e), w);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @param line A line name, in any case and with any dashes
+     * @return The line id, or -1 if there is no such line
+     */
+    public int line(String line) {
+        final Integer id = lineIds.get(normalise(line.trim()));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return The number of stations on the line
+     */
+    public int length(int line) {
+        return lineStations[line].length;
+    }
+
+    /**
+     * @return The station at an index of the line's travel order
+     */
+    public int station(int line, int index) {
+        return lineStations[line][index];
+    }
+
+    /**
+     * @return The minutes from the line's terminus to the station at an index of its travel order
+     */
+    public int minutesAt(int line, int index) {
+        return lineMinutes[line][index];
+    }
+
+    /**
+     * @return The position of the station it is reached from at an index of the line's travel order,
+     * -1 for the terminus the walk starts from
+     */
+    public int parent(int line, int index) {
+        return lineParents[line][index];
+    }
+
+    /**
+     * @return The index of a station in the line's travel order, or -1 if the line doesn't serve it. O(log lines at the station)
+     */
+    public int position(int line, int station) {
+        final int i = Arrays.binarySearch(stationLines[station], line);
+        return i < 0 ? -1 : stationPositions[station][i];
+    }
+
+    /**
+     * @return The fastest minutes between two stations riding only the line, {@link Dijkstra#INFINITY} if the line doesn't
+     * connect them. O(1) after the position lookups
+     */
+    public int minutes(int line, int from, int to) {
+        final int a = position(line, from);
+        final int b = position(line, to);
+        if (a == -1 || b == -1) return Dijkstra.INFINITY;
+        return lineTables[line][a * lineStations[line].length + b];
+    }
+
+    /**
+     * @return The indexes of the line's termini in its travel order, the first being where the walk starts
+     */
+    public int[] termini(int line) {
+        return lineTermini[line].clone();
+    }
+
+    /**
+     * @return The station ids of the line in travel order
+     */
+    public int[] stations(int line) {
+        return lineStations[line].clone();
+    }
+
+    /**
+     * @return The ids of the lines serving the station, ascending
+     */
+    public int[] lines(int station) {
+        return stationLines[station].clone();
+    }
+
+    /**
+     * @return The name in lower case with single spaces and every run of dashes as one en dash
+     */
+    static String normalise(String name) {
+        return name.trim().toLowerCase(Locale.ROOT).replaceAll("[-–—]+", "–").replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return The number of distinct stations next to the station on the line
+     */
+    private static int neighbours(StationGraph graph, int station, int line) {
+        int count = 0;
+        for (int e = graph.firstEdge(station); e < graph.endEdge(station); e++) {
+            if (graph.lineOf(e) != line) continue;
+            boolean seen = false;
+            for (int f = graph.firstEdge(station); f < e; f++)
+                if (graph.lineOf(f) == line && graph.target(f) == graph.target(e)) seen = true;
+            if (!seen) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The timetabled minutes of the fastest segment between two adjacent stations of the line
+     */
+    private static int fastest(StationGraph graph, int from, int to, int line) {
+        int best = Integer.MAX_VALUE;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++)
+            if (graph.target(e) == to && graph.lineOf(e) == line) best = Math.min(best, graph.minutes(e));
+        return best;
+    }
+}
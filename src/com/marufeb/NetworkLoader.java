@@ -0,0 +1,140 @@
+package com.marufeb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Loads the WMR network from the lines and step-free access CSV files in a single streaming pass each.
+ * Names are trimmed and interned straight into the graph dictionary, repeated segments are dropped,
+ * and malformed rows are skipped and reported with their line number.
+ */
+public final class NetworkLoader {
+
+    /**
+     * A loaded network
+     */
+    public static final class Network {
+        private final StationGraph graph;
+        private final int[] segments;
+        private final long checksum;
+        private final List<String> problems;
+
+        Network(StationGraph graph, int[] segments, long checksum, List<String> problems) {
+            this.graph = graph;
+            this.segments = segments;
+            this.checksum = checksum;
+            this.problems = problems;
+        }
+
+        public StationGraph graph() {
+            return graph;
+        }
+
+        /**
+         * @return The distinct segments in file order, as (line, from, to, minutes) id quadruples
+         */
+        public int[] segments() {
+            return segments;
+        }
+
+        /**
+         * @return The CRC32 of the files the network was loaded from
+         */
+        public long checksum() {
+            return checksum;
+        }
+
+        /**
+         * @return The malformed input that was skipped
+         */
+        public List<String> problems() {
+            return problems;
+        }
+    }
+
+    private NetworkLoader() {
+    }
+
+    /**
+     * Loads the network. O(n)
+     * @param lines The lines file: TRAIN LINE, FROM/TO STATION, TO/FROM STATION, TRAVEL TIME (MINS)
+     * @param accesses The step-free access file: STATION WITH STEP-FREE ACCESS
+     * @return The network
+     * @throws IOException If a file can't be read
+     */
+    public static Network load(File lines, File accesses) throws IOException {
+        final long start = Metrics.start();
+        final StationGraph.Builder builder = new StationGraph.Builder();
+        final List<String> problems = new ArrayList<>();
+        final CRC32 checksum = new CRC32();
+        final Map<Long, Integer> seen = new HashMap<>(); // (line, station, station) -> minutes
+        final int[][] segments = {new int[256]};
+        final int[] size = {0};
+
+        CsvReader.read(lines, true, checksum, problems, (line, fields) -> {
+            final String where = lines.getName() + ":" + line + ": ";
+            if (fields.size() != 4) {
+                problems.add(where + "expected 4 fields, found " + fields.size());
+                return;
+            }
+            if (fields.get(0).isEmpty() || fields.get(1).isEmpty() || fields.get(2).isEmpty()) {
+                problems.add(where + "empty line or station name");
+                return;
+            }
+            final int minutes;
+            try {
+                minutes = Integer.parseInt(fields.get(3));
+            } catch (NumberFormatException e) {
+                problems.add(where + "travel time is not a number: " + fields.get(3));
+                return;
+            }
+            if (minutes < 0) {
+                problems.add(where + "negative travel time: " + minutes);
+                return;
+            }
+            final int id = builder.line(canonicalLine(fields.get(0)));
+            final int from = builder.station(fields.get(1));
+            final int to = builder.station(fields.get(2));
+            if (from == to) {
+                problems.add(where + "segment starts and ends at " + fields.get(1));
+                return;
+            }
+            final long key = ((long) id << 42) | ((long) Math.min(from, to) << 21) | Math.max(from, to);
+            final Integer previous = seen.putIfAbsent(key, minutes);
+            if (previous != null) {
+                if (previous != minutes)
+                    problems.add(where + "repeated segment with " + minutes + " instead of " + previous + " minutes, ignored");
+                return;
+            }
+            builder.segment(id, from, to, minutes);
+            if (size[0] + 4 > segments[0].length) segments[0] = Arrays.copyOf(segments[0], segments[0].length * 2);
+            final int[] row = segments[0];
+            row[size[0]++] = id;
+            row[size[0]++] = from;
+            row[size[0]++] = to;
+            row[size[0]++] = minutes;
+        });
+
+        CsvReader.read(accesses, true, checksum, problems, (line, fields) -> {
+            final String where = accesses.getName() + ":" + line + ": ";
+            if (fields.size() != 1) problems.add(where + "expected 1 field, found " + fields.size());
+            else if (!builder.contains(fields.get(0))) problems.add(where + "unknown station " + fields.get(0));
+            else builder.stepFree(fields.get(0));
+        });
+
+        final Network network = new Network(builder.build(), Arrays.copyOf(segments[0], size[0]), checksum.getValue(), problems);
+        Metrics.LOAD.stop(start, lines.getName(), null);
+        return network;
+    }
+
+    /**
+     * Spells the separators of a line name with en dashes, as most of the file does
+     * @param line The line name
+     * @return The canonical name
+     */
+    static String canonicalLine(String line) {
+        return line.replace(" - ", " – ");
+    }
+}
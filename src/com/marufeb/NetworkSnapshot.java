@@ -0,0 +1,267 @@
+package com.marufeb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compact binary image of a loaded network, so that a start doesn't have to parse the CSV files
+ * and rebuild the graph. The file is memory mapped and its sections are bulk copied into the
+ * graph arrays, which is a handful of memcpys rather than a parse.
+ * The header records the size and modification time of the CSV files the network was loaded from, and the snapshot
+ * is only used while both match exactly, so a file replaced by an older one isn't shadowed by the snapshot.
+ * <pre>
+ * int magic, int version, long checksum, long[4] lines file size and modification time, then the access file's,
+ * int stations, int lines, int edges, int segments, int problems,
+ * int[stations + 1] offsets, int[edges] targets, int[edges] minutes, int[edges] edge lines,
+ * int[segments * 4] segments, long[(stations + 63) / 64] step-free bitset,
+ * int[strings + 1] string offsets, byte[] UTF-8 station names, then line names, then problems
+ * </pre>
+ */
+public final class NetworkSnapshot {
+    private static final int MAGIC = 0x574D5253; // WMRS
+    private static final int VERSION = 2;
+    private static final int SOURCES = 16; // The offset of the CSV file sizes and times
+    private static final int HEADER = 68;
+
+    private NetworkSnapshot() {
+    }
+
+    /**
+     * Reads the snapshot, or loads the CSV files and writes the snapshot if it is missing, unreadable, or was
+     * written from CSV files of another size or modification time. When the CSV files are absent the snapshot is
+     * used as it is.
+     * A snapshot that can't be written, on a read-only file system say, is reported and the loaded network is used.
+     * @param snapshot The snapshot file
+     * @param lines The lines file
+     * @param accesses The step-free access file
+     * @return The network
+     * @throws IOException If neither the snapshot nor the CSV files can be read
+     */
+    public static NetworkLoader.Network cached(File snapshot, File lines, File accesses) throws IOException {
+        final long[] sources = sources(lines, accesses); // Before loading, so a file changing meanwhile is seen next time
+        if (!lines.isFile() || !accesses.isFile() || Arrays.equals(sources, sources(snapshot))) {
+            try {
+                final NetworkLoader.Network network = read(snapshot);
+                if (network != null) return network;
+            } catch (IOException e) {
+                if (!lines.isFile() || !accesses.isFile()) throw e;
+            }
+        }
+        final NetworkLoader.Network network = NetworkLoader.load(lines, accesses);
+        try {
+            write(snapshot, network, sources);
+        } catch (IOException e) {
+            System.err.println("Can't write the snapshot " + snapshot + ": " + e);
+        }
+        return network;
+    }
+
+    /**
+     * Maps and reads a snapshot. O(V + E)
+     * @param snapshot The snapshot file
+     * @return The network, or null if the file is missing, of another version or inconsistent
+     * @throws IOException If the file can't be read
+     */
+    public static NetworkLoader.Network read(File snapshot) throws IOException {
+        if (!snapshot.isFile()) return null;
+        final long start = Metrics.start();
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "r"); FileChannel channel = file.getChannel()) {
+            if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) return null;
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+            final long checksum = buffer.getLong();
+            buffer.position(SOURCES + 32); // Past the CSV file sizes and times, checked by cached()
+            final int n = buffer.getInt();
+            final int lineCount = buffer.getInt();
+            final int m = buffer.getInt();
+            final int segmentCount = buffer.getInt();
+            final int problemCount = buffer.getInt();
+            final int strings = n + lineCount + problemCount;
+            final long fixed = HEADER + 4L * (n + 1 + 3L * m + 4L * segmentCount + strings + 1) + 8L * words(n);
+            if (n < 0 || lineCount < 0 || m < 0 || segmentCount < 0 || problemCount < 0 || strings < 0
+                    || fixed > buffer.capacity())
+                return null;
+
+            final int[] offsets = ints(buffer, n + 1);
+            final int[] targets = ints(buffer, m);
+            final int[] minutes = ints(buffer, m);
+            final int[] edgeLines = ints(buffer, m);
+            final int[] segments = ints(buffer, segmentCount * 4);
+            final long[] stepFree = new long[words(n)];
+            buffer.asLongBuffer().get(stepFree);
+            buffer.position(buffer.position() + stepFree.length * 8);
+            final int[] bounds = ints(buffer, strings + 1);
+            if (!consistent(offsets, targets, edgeLines, segments, lineCount)
+                    || !ascending(bounds, buffer.remaining()))
+                return null;
+
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            final String[] names = new String[strings];
+            for (int i = 0; i < strings; i++)
+                names[i] = new String(bytes, bounds[i], bounds[i + 1] - bounds[i], StandardCharsets.UTF_8);
+            final StationGraph graph = StationGraph.of(Arrays.copyOfRange(names, 0, n),
+                    Arrays.copyOfRange(names, n, n + lineCount), offsets, targets, minutes, edgeLines, stepFree);
+            final List<String> problems = new ArrayList<>(Arrays.asList(names).subList(n + lineCount, strings));
+            return new NetworkLoader.Network(graph, segments, checksum, problems);
+        } finally {
+            Metrics.SNAPSHOT.stop(start);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file of its own next to its final place and moves it over atomically,
+     * so that a concurrent start never sees a half written file and concurrent writers never share one.
+     * No CSV files are recorded, so {@link #cached} reloads them rather than trust the snapshot. O(V + E)
+     * @param snapshot The snapshot file
+     * @param network The network
+     * @throws IOException If the file can't be written
+     */
+    public static void write(File snapshot, NetworkLoader.Network network) throws IOException {
+        write(snapshot, network, new long[4]);
+    }
+
+    /**
+     * Writes the snapshot, recording the CSV files the network was loaded from, see {@link #write(File, NetworkLoader.Network)}
+     * @param snapshot The snapshot file
+     * @param network The network
+     * @param lines The lines file
+     * @param accesses The step-free access file
+     * @throws IOException If the file can't be written
+     */
+    public static void write(File snapshot, NetworkLoader.Network network, File lines, File accesses) throws IOException {
+        write(snapshot, network, sources(lines, accesses));
+    }
+
+    private static void write(File snapshot, NetworkLoader.Network network, long[] sources) throws IOException {
+        final StationGraph graph = network.graph();
+        final int n = graph.stationCount();
+        final int m = graph.edgeCount();
+        final int[] segments = network.segments();
+        final List<String> problems = network.problems();
+
+        final int strings = n + graph.lineCount() + problems.size();
+        final byte[][] names = new byte[strings][];
+        int bytes = 0;
+        for (int i = 0; i < strings; i++) {
+            final String name = i < n ? graph.stationName(i)
+                    : i < n + graph.lineCount() ? graph.lineName(i - n)
+                    : problems.get(i - n - graph.lineCount());
+            names[i] = name.getBytes(StandardCharsets.UTF_8);
+            bytes += names[i].length;
+        }
+        final long size = HEADER + 4L * (n + 1 + 3L * m + segments.length + strings + 1) + 8L * words(n) + bytes;
+
+        final Path target = snapshot.getAbsoluteFile().toPath();
+        final Path temporary = Files.createTempFile(target.getParent(), snapshot.getName(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(network.checksum());
+            for (long value : sources) buffer.putLong(value);
+            buffer.putInt(n).putInt(graph.lineCount())
+                    .putInt(m).putInt(segments.length / 4).putInt(problems.size());
+            for (int v = 0; v <= n; v++) buffer.putInt(v < n ? graph.firstEdge(v) : m);
+            for (int e = 0; e < m; e++) buffer.putInt(graph.target(e));
+            for (int e = 0; e < m; e++) buffer.putInt(graph.minutes(e));
+            for (int e = 0; e < m; e++) buffer.putInt(graph.lineOf(e));
+            for (int value : segments) buffer.putInt(value);
+            for (int word = 0; word < words(n); word++) {
+                long bits = 0;
+                for (int v = word << 6; v < Math.min(n, (word + 1) << 6); v++)
+                    if (graph.stepFree(v)) bits |= 1L << v;
+                buffer.putLong(bits);
+            }
+            int offset = 0;
+            buffer.putInt(offset);
+            for (byte[] name : names) buffer.putInt(offset += name.length);
+            for (byte[] name : names) buffer.put(name);
+            buffer.force();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return The size and modification time of each file
+     */
+    private static long[] sources(File lines, File accesses) {
+        return new long[]{lines.length(), lines.lastModified(), accesses.length(), accesses.lastModified()};
+    }
+
+    /**
+     * @return The CSV file sizes and times recorded by a snapshot, or null if it is missing or of another version
+     */
+    private static long[] sources(File snapshot) {
+        if (!snapshot.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining())
+                if (channel.read(header) == -1) break;
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+            header.position(SOURCES);
+            final long[] sources = new long[4];
+            for (int i = 0; i < sources.length; i++) sources[i] = header.getLong();
+            return sources;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static int words(int stations) {
+        return (stations + 63) >>> 6;
+    }
+
+    /**
+     * Bulk copies the next ints of the buffer
+     */
+    private static int[] ints(ByteBuffer buffer, int count) {
+        final int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    /**
+     * @return Whether every id in the CSR arrays and segments is in range, so a damaged file can't break a search
+     */
+    private static boolean consistent(int[] offsets, int[] targets, int[] edgeLines, int[] segments, int lineCount) {
+        final int n = offsets.length - 1;
+        if (offsets[0] != 0 || offsets[n] != targets.length || !ascending(offsets, targets.length)) return false;
+        for (int e = 0; e < targets.length; e++)
+            if (targets[e] < 0 || targets[e] >= n || edgeLines[e] < 0 || edgeLines[e] >= lineCount) return false;
+        for (int i = 0; i < segments.length; i += 4)
+            if (segments[i] < 0 || segments[i] >= lineCount || segments[i + 1] < 0 || segments[i + 1] >= n
+                    || segments[i + 2] < 0 || segments[i + 2] >= n)
+                return false;
+        return true;
+    }
+
+    private static boolean ascending(int[] values, int limit) {
+        for (int i = 0; i < values.length; i++)
+            if (values[i] < (i == 0 ? 0 : values[i - 1]) || values[i] > limit) return false;
+        return true;
+    }
+}
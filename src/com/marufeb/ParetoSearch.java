@@ -0,0 +1,149 @@
+package com.marufeb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds in one search every route that no other beats on travel time, number of changes and step-free access
+ * together: the fastest route, the one with the fewest changes, the fastest accessible one, and the trade-offs
+ * between them. It is a multi-label Dijkstra over edges, so each label knows the line being ridden, keeping at
+ * every edge the labels not dominated by another. Labels are settled in order of minutes, then changes, then
+ * step-free first, so a label is only ever dominated by one settled before it, and the routes come out fastest first.
+ */
+public final class ParetoSearch {
+    /* A label key: minutes << 8 | changes << 1 | 1 unless step-free so far */
+    private static final int MINUTE_SHIFT = 8;
+    private static final int MAX_CHANGES = (1 << (MINUTE_SHIFT - 1)) - 1;
+    private static final int MAX_MINUTES = Integer.MAX_VALUE >> MINUTE_SHIFT;
+
+    private final StationGraph graph;
+
+    public ParetoSearch(StationGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Finds the Pareto optimal routes between two stations, leaving dominance alone to bound the number of changes,
+     * see {@link #routes(int, int, int)}
+     */
+    public List<Path> routes(int from, int to) {
+        return routes(from, to, MAX_CHANGES);
+    }
+
+    /**
+     * Finds the Pareto optimal routes between two stations.
+     * A route is step-free when it boards, alights and changes only at step-free stations, as in
+     * {@link Dijkstra#accessibleRoute(int, int)}. O(k (E + sum of squared degrees) log(k E)) for k labels per edge,
+     * at most 2 (maxChanges + 1)
+     * @param from The start station id
+     * @param to The destination station id
+     * @param maxChanges The most changes of a route
+     * @return The routes by ascending minutes, so descending changes, a step-free one before another as fast;
+     * empty if there is none
+     */
+    public List<Path> routes(int from, int to, int maxChanges) {
+        final List<Path> routes = new ArrayList<>();
+        if (from == to) {
+            routes.add(Path.of(graph, new int[]{from}));
+            return routes;
+        }
+        final int changeLimit = Math.min(maxChanges, MAX_CHANGES);
+        final int last = graph.stepFree(to) ? 0 : 1; // Or-ed into a key arriving at the destination
+        final SearchSpace bags = SearchSpace.of(SearchSpace.FORWARD, graph.edgeCount()); // Key: the last label settled at the edge
+        final MinHeap heap = bags.heap;
+        final Labels labels = new Labels();
+        int[] found = new int[8];
+        int size = 0;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++) {
+            if (!graph.open(e)) continue;
+            final int key = graph.minutes(e) << MINUTE_SHIFT | (graph.stepFree(from) ? 0 : 1);
+            heap.push(key, labels.add(e, key, -1));
+        }
+        int settled = 0;
+        int relaxed = 0;
+        while (!heap.isEmpty()) {
+            final int label = MinHeap.value(heap.pop());
+            final int e = labels.edges[label];
+            final int key = labels.keys[label];
+            if (dominated(bags, labels, e, key) || dominated(labels, found, size, key | last)) continue;
+            settled++;
+            final int v = graph.target(e);
+            if (v == to) { // Routes end here, riding on can't do better
+                if (size == found.length) found = Arrays.copyOf(found, size * 2);
+                found[size++] = label;
+                labels.keys[label] = key | last;
+                continue;
+            }
+            labels.next[label] = bags.visited(e) ? bags.key(e) : -1;
+            bags.set(e, label, -1);
+            final int minutes = key >>> MINUTE_SHIFT;
+            final int changes = (key >>> 1) & MAX_CHANGES;
+            for (int f = graph.firstEdge(v); f < graph.endEdge(v); f++) {
+                final boolean same = graph.lineOf(f) == graph.lineOf(e);
+                if (!graph.open(f) || (same && graph.target(f) == graph.source(e)) || (!same && changes == changeLimit)) continue;
+                relaxed++;
+                if (minutes + graph.minutes(f) > MAX_MINUTES) continue;
+                final int candidate = (minutes + graph.minutes(f)) << MINUTE_SHIFT | (changes + (same ? 0 : 1)) << 1
+                        | (key & 1) | (same || graph.stepFree(v) ? 0 : 1);
+                if (!dominated(bags, labels, f, candidate)) heap.push(candidate, labels.add(f, candidate, label));
+            }
+        }
+        Metrics.PARETO.record(settled, relaxed);
+        for (int i = 0; i < size; i++) routes.add(labels.path(graph, found[i]));
+        return routes;
+    }
+
+    /**
+     * @return Whether a label settled at the edge is at least as good as the key on every criterion
+     */
+    private static boolean dominated(SearchSpace bags, Labels labels, int edge, int key) {
+        if (!bags.visited(edge)) return false;
+        for (int l = bags.key(edge); l != -1; l = labels.next[l])
+            if (dominates(labels.keys[l], key)) return true;
+        return false;
+    }
+
+    private static boolean dominated(Labels labels, int[] found, int size, int key) {
+        for (int i = 0; i < size; i++)
+            if (dominates(labels.keys[found[i]], key)) return true;
+        return false;
+    }
+
+    private static boolean dominates(int a, int b) {
+        return a >>> MINUTE_SHIFT <= b >>> MINUTE_SHIFT && ((a >>> 1) & MAX_CHANGES) <= ((b >>> 1) & MAX_CHANGES) && (a & 1) <= (b & 1);
+    }
+
+    /**
+     * The labels of a search: the edge, the key, the label it was extended from, and the next label settled at
+     * the same edge
+     */
+    private static final class Labels {
+        private int[] edges = new int[64];
+        private int[] keys = new int[64];
+        private int[] parents = new int[64];
+        private int[] next = new int[64];
+        private int size = 0;
+
+        private int add(int edge, int key, int parent) {
+            if (size == edges.length) {
+                edges = Arrays.copyOf(edges, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+                parents = Arrays.copyOf(parents, size * 2);
+                next = Arrays.copyOf(next, size * 2);
+            }
+            edges[size] = edge;
+            keys[size] = key;
+            parents[size] = parent;
+            return size++;
+        }
+
+        private Path path(StationGraph graph, int label) {
+            int length = 0;
+            for (int l = label; l != -1; l = parents[l]) length++;
+            final int[] path = new int[length];
+            for (int l = label; l != -1; l = parents[l]) path[--length] = edges[l];
+            return Path.ofEdges(graph, path);
+        }
+    }
+}
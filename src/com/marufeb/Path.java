@@ -0,0 +1,163 @@
+package com.marufeb;
+
+import java.util.Arrays;
+
+/**
+ * A route through the station graph: the visited station ids, the line ridden on every hop,
+ * the travel time up to every station and the number of changes.
+ */
+public final class Path {
+    private final int[] stations;
+    private final int[] lines;
+    private final int[] times;
+    private final int changes;
+
+    private Path(int[] stations, int[] lines, int[] times, int changes) {
+        this.stations = stations;
+        this.lines = lines;
+        this.times = times;
+        this.changes = changes;
+    }
+
+    /**
+     * Builds a path from a station sequence. Every hop takes its fastest segment, and where several lines
+     * share that segment the lines are picked so that the number of changes is minimal. O(length)
+     * @param graph The graph the stations belong to
+     * @param stations The station sequence, consecutive stations must be adjacent
+     * @return The path
+     */
+    public static Path of(StationGraph graph, int[] stations) {
+        final int hops = Math.max(stations.length - 1, 0);
+        final int[][] candidates = new int[hops][];
+        final int[] times = new int[stations.length];
+        int changes = 0;
+        int[] current = null;
+        for (int i = 0; i < hops; i++) {
+            final int[] hop = fastestLines(graph, stations[i], stations[i + 1]);
+            times[i + 1] = times[i] + hop[0];
+            final int[] lines = Arrays.copyOfRange(hop, 1, hop.length);
+            final int[] kept = current == null ? lines : intersect(current, lines);
+            if (kept.length == 0) {
+                changes++;
+                current = lines;
+            } else current = kept;
+            candidates[i] = current;
+        }
+
+        // Walk back so every run of hops ends up on one line that covers all of it
+        final int[] lines = new int[hops];
+        int line = -1;
+        for (int i = hops - 1; i >= 0; i--) {
+            if (line == -1 || !contains(candidates[i], line)) line = candidates[i][0];
+            lines[i] = line;
+        }
+        return new Path(stations, lines, times, changes);
+    }
+
+    /**
+     * Builds a path from the exact segments ridden. O(length)
+     * @param graph The graph the edges belong to
+     * @param edges The edge ids, each starting where the previous one ends
+     * @return The path
+     */
+    public static Path ofEdges(StationGraph graph, int[] edges) {
+        final int[] stations = new int[edges.length + 1];
+        final int[] lines = new int[edges.length];
+        final int[] times = new int[edges.length + 1];
+        stations[0] = graph.source(edges[0]);
+        int changes = 0;
+        for (int i = 0; i < edges.length; i++) {
+            stations[i + 1] = graph.target(edges[i]);
+            lines[i] = graph.lineOf(edges[i]);
+            times[i + 1] = times[i] + graph.minutes(edges[i]);
+            if (i > 0 && lines[i] != lines[i - 1]) changes++;
+        }
+        return new Path(stations, lines, times, changes);
+    }
+
+    /**
+     * @return The fastest time between two adjacent stations followed by the lines offering it
+     */
+    private static int[] fastestLines(StationGraph graph, int from, int to) {
+        int best = Integer.MAX_VALUE;
+        int count = 0;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++) {
+            if (graph.target(e) != to || !graph.open(e)) continue;
+            if (graph.minutes(e) < best) {
+                best = graph.minutes(e);
+                count = 0;
+            }
+            if (graph.minutes(e) == best) count++;
+        }
+        if (count == 0) throw new IllegalArgumentException(graph.stationName(from) + " is not adjacent to " + graph.stationName(to));
+        final int[] result = new int[count + 1];
+        result[0] = best;
+        int i = 1;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++)
+            if (graph.target(e) == to && graph.open(e) && graph.minutes(e) == best && !contains(result, 1, i, graph.lineOf(e)))
+                result[i++] = graph.lineOf(e);
+        return i == result.length ? result : Arrays.copyOf(result, i);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        final int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int x : a)
+            if (contains(b, x)) result[size++] = x;
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        return contains(values, 0, values.length, value);
+    }
+
+    private static boolean contains(int[] values, int from, int to, int value) {
+        for (int i = from; i < to; i++)
+            if (values[i] == value) return true;
+        return false;
+    }
+
+    public int[] stations() {
+        return stations.clone();
+    }
+
+    public int length() {
+        return stations.length;
+    }
+
+    public int station(int index) {
+        return stations[index];
+    }
+
+    /**
+     * @param hop The hop index, from station(hop) to station(hop + 1)
+     * @return The line ridden on that hop
+     */
+    public int line(int hop) {
+        return lines[hop];
+    }
+
+    public int from() {
+        return stations[0];
+    }
+
+    public int to() {
+        return stations[stations.length - 1];
+    }
+
+    public int minutes() {
+        return times[times.length - 1];
+    }
+
+    /**
+     * @param index The station index on the path
+     * @return The travel time from the start up to that station
+     */
+    public int minutesAt(int index) {
+        return times[index];
+    }
+
+    public int changes() {
+        return changes;
+    }
+}
@@ -0,0 +1,147 @@
+package com.marufeb;
+
+import java.util.Arrays;
+
+/**
+ * Enumerates the simple paths between two stations with a depth first search on an explicit stack.
+ * The search is bounded by the number of changes, the travel time and the number of results, and every
+ * path is handed to the sink as soon as it is found.
+ * Travel times to the destination are computed up front so branches that can't make it in time are cut early.
+ */
+public final class PathEnumerator {
+
+    /**
+     * Receives the paths as they are found. The enumeration keeps no per-thread search state while it waits,
+     * so a sink may run other queries, even another enumeration
+     */
+    public interface Sink {
+        /**
+         * @param path The path found
+         * @return false to stop the enumeration
+         */
+        boolean accept(Path path);
+    }
+
+    private final StationGraph graph;
+    private final Dijkstra dijkstra;
+
+    public PathEnumerator(StationGraph graph) {
+        this.graph = graph;
+        this.dijkstra = new Dijkstra(graph);
+    }
+
+    /**
+     * Streams the paths from one station to another
+     * @param from The start station id
+     * @param to The destination station id
+     * @param maxChanges The maximum number of changes of a path
+     * @param maxMinutes The maximum travel time of a path
+     * @param maxResults The maximum number of paths
+     * @param sink The receiver of the paths
+     * @return The number of paths found
+     */
+    public int enumerate(int from, int to, int maxChanges, int maxMinutes, int maxResults, Sink sink) {
+        if (maxResults <= 0 || from == to) return 0;
+        final int n = graph.stationCount();
+        final int[] remaining = dijkstra.minutesFrom(to); // Segments run both ways
+        if (remaining[from] > maxMinutes) return 0;
+
+        int[] stack = new int[16];
+        int[] cursor = new int[16];
+        int[] minutes = new int[16];
+        int[] changes = new int[16];
+        int[] lineStart = new int[17]; // The lines that can cover the current run at depth d are lineStart[d] .. lineStart[d + 1]
+        int[] lines = new int[64];
+        final int[] hop = new int[16];
+        final boolean[] onPath = new boolean[n]; // Its own, as the sink may run searches in the thread's search spaces
+
+        int depth = 0;
+        int found = 0;
+        stack[0] = from;
+        cursor[0] = graph.firstEdge(from);
+        onPath[from] = true;
+        int settled = 1; // Partial paths extended
+        int relaxed = 0;
+        while (depth >= 0) {
+            final int v = stack[depth];
+            if (cursor[depth] == graph.endEdge(v)) { // Backtrack
+                onPath[v] = false;
+                depth--;
+                continue;
+            }
+            final int e = cursor[depth]++;
+            final int w = graph.target(e);
+            relaxed++;
+            if (!graph.open(e) || onPath[w] || seenBefore(v, e) || remaining[w] == Dijkstra.INFINITY) continue;
+
+            // The fastest segments from v to w and the lines offering them
+            int fastest = Integer.MAX_VALUE;
+            int offered = 0;
+            for (int f = e; f < graph.endEdge(v); f++) {
+                if (graph.target(f) != w || !graph.open(f)) continue;
+                if (graph.minutes(f) < fastest) {
+                    fastest = graph.minutes(f);
+                    offered = 0;
+                }
+                if (graph.minutes(f) == fastest && offered < hop.length) hop[offered++] = graph.lineOf(f);
+            }
+            final int time = minutes[depth] + fastest;
+            if (time + remaining[w] > maxMinutes) continue;
+
+            // Keep riding the current lines where possible, otherwise change
+            final int base = lineStart[depth + 1];
+            if (lines.length < base + offered) lines = Arrays.copyOf(lines, lines.length * 2 + offered);
+            int kept = 0;
+            for (int i = 0; i < offered; i++)
+                for (int j = lineStart[depth]; j < base; j++)
+                    if (lines[j] == hop[i]) {
+                        lines[base + kept++] = hop[i];
+                        break;
+                    }
+            int change = changes[depth];
+            if (kept == 0) {
+                if (depth > 0) change++;
+                System.arraycopy(hop, 0, lines, base, offered);
+                kept = offered;
+            }
+            if (change > maxChanges) continue;
+
+            if (w == to) {
+                final int[] stations = Arrays.copyOf(stack, depth + 2);
+                stations[depth + 1] = to;
+                found++;
+                if (!sink.accept(Path.of(graph, stations)) || found >= maxResults) {
+                    Metrics.ENUMERATOR.record(settled, relaxed);
+                    return found;
+                }
+                continue;
+            }
+            if (++depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+                cursor = Arrays.copyOf(cursor, depth * 2);
+                minutes = Arrays.copyOf(minutes, depth * 2);
+                changes = Arrays.copyOf(changes, depth * 2);
+                lineStart = Arrays.copyOf(lineStart, depth * 2 + 1);
+            }
+            stack[depth] = w;
+            cursor[depth] = graph.firstEdge(w);
+            minutes[depth] = time;
+            changes[depth] = change;
+            lineStart[depth + 1] = base + kept;
+            onPath[w] = true;
+            settled++;
+        }
+        Metrics.ENUMERATOR.record(settled, relaxed);
+        return found;
+    }
+
+    /**
+     * @return Whether an earlier open edge of the station already led to the same neighbour
+     */
+    private boolean seenBefore(int station, int edge) {
+        final int target = graph.target(edge);
+        for (int e = graph.firstEdge(station); e < edge; e++)
+            if (graph.target(e) == target && graph.open(e)) return true;
+        return false;
+    }
+}
@@ -0,0 +1,407 @@
+package com.marufeb;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the {@link Controller} queries over a loopback socket, one JSON request per line and one JSON response
+ * per line:
+ * <pre>
+ * {"id":1,"op":"showShortestPath","from":"Birmingham New Street","to":"Coventry"}
+ * {"id":1,"result":"..."}
+ * </pre>
+ * The ops are the {@link Controller} methods with their parameter names, plus showRankedRoutes (from, to),
+ * showJourneys (from, to, departure as H:MM), showReachable (from, minutes, stepFree) and routes (queries, a list
+ * of from, to and an optional mode), which answers a batch through {@link BatchController#routes}. A failed request
+ * gets an "error" instead of a "result". A line holding a JSON array of requests is a batch, answered by one line
+ * holding the array of responses.
+ * <p>
+ * Clients may pipeline: every request is queued for a worker as soon as it's read, so responses come back in
+ * completion order and are matched by their id. Up to {@link #PIPELINE} requests of a connection are queued,
+ * running or waiting to be written at once, after which the connection isn't read until one is written. Responses
+ * finishing together are written and flushed together. Every connection has a reader and a writer, on virtual
+ * threads where the JDK has them, or on a cached thread pool, while requests run on a fixed pool of {@link #WORKERS}
+ * platform threads, which keep their search spaces warm between requests, see {@link SearchSpace}. The workers
+ * never touch a socket, so a client which doesn't read its responses stalls only its own writer. They share the
+ * controller, whose graph and routers are immutable and swapped whole on updates.
+ */
+public final class QueryServer implements Closeable {
+    /* The most requests of a connection running at once */
+    public static final int PIPELINE = 256;
+    /* The threads answering requests, one per core as a request never blocks, they hand responses to the writers */
+    public static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    /* The longest request line, in characters: a longer one gets an error and the connection is dropped */
+    private static final int MAX_LINE = 1 << 20;
+
+    private final ControllerImpl controller;
+    private final ServerSocket socket;
+    private final ExecutorService executor = executor();
+    private final ExecutorService workers = workers();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed = false;
+
+    /**
+     * Binds the server to a loopback port
+     * @param controller The controller answering the queries
+     * @param port The port, 0 for any free port
+     * @throws IOException If the port can't be bound
+     */
+    public QueryServer(ControllerImpl controller, int port) throws IOException {
+        this.controller = controller;
+        socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), PIPELINE);
+        acceptor = new Thread(this::accept, "query-server-" + socket.getLocalPort());
+    }
+
+    /**
+     * Starts accepting connections
+     * @return This server
+     */
+    public QueryServer start() {
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * @return The bound port
+     */
+    public int port() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return Whether connections are read on virtual threads
+     */
+    public boolean virtual() {
+        return !(executor instanceof ThreadPoolExecutor);
+    }
+
+    /**
+     * Stops accepting connections and drops the open ones
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        connections.forEach(Connection::close);
+        executor.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket client = socket.accept();
+                client.setTcpNoDelay(true);
+                final Connection connection = new Connection(client);
+                connections.add(connection);
+                try {
+                    executor.execute(connection::write);
+                    executor.execute(connection::read);
+                } catch (RejectedExecutionException e) {
+                    connection.close();
+                    throw e;
+                }
+            } catch (IOException | RejectedExecutionException e) {
+                if (!closed) System.err.println("Query server: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return A virtual thread per task executor if the JDK has one, 21 and later, else a cached pool of daemon threads
+     */
+    private static ExecutorService executor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ignored) { // Older JDK, or a preview feature left off
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(it -> {
+            final Thread thread = new Thread(it, "query-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return A fixed pool of {@link #WORKERS} daemon threads: a thread's search spaces are allocated once and reused
+     * by every request it runs, where a thread per request would allocate them anew each time
+     */
+    private static ExecutorService workers() {
+        final AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(WORKERS, it -> {
+            final Thread thread = new Thread(it, "query-worker-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param line One request, or an array of requests
+     * @return The response line
+     */
+    String answer(String line) {
+        final Object request;
+        try {
+            request = Json.parse(line);
+        } catch (IllegalArgumentException e) {
+            Metrics.SERVER_ERRORS.increment();
+            return Json.write(new StringBuilder(), response(null, null, e.getMessage())).toString();
+        }
+        if (!(request instanceof List)) return Json.write(new StringBuilder(), answer(request)).toString();
+        final List<Object> responses = new ArrayList<>();
+        ((List<?>) request).forEach(it -> responses.add(answer(it)));
+        return Json.write(new StringBuilder(), responses).toString();
+    }
+
+    private Map<String, Object> answer(Object request) {
+        final long start = Metrics.start();
+        final Object id = request instanceof Map ? ((Map<?, ?>) request).get("id") : null;
+        String op = null;
+        try {
+            if (!(request instanceof Map)) throw new IllegalArgumentException("a request must be an object");
+            final Map<?, ?> fields = (Map<?, ?>) request;
+            op = text(fields, "op");
+            return response(id, answer(op, fields), null);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            Metrics.SERVER_ERRORS.increment();
+            return response(id, null, e.getMessage());
+        } catch (RuntimeException e) {
+            Metrics.SERVER_ERRORS.increment();
+            return response(id, null, "internal error: " + e);
+        } finally {
+            Metrics.SERVER_REQUESTS.stop(start, op, null);
+        }
+    }
+
+    private Object answer(String op, Map<?, ?> request) {
+        switch (op) {
+            case "listTermini": return controller.listTermini(text(request, "line"));
+            case "listStationsInLine": return controller.listStationsInLine(text(request, "line"));
+            case "listAllLines": return controller.listAllLines();
+            case "showAccessiblePath": return controller.showAccessiblePath(text(request, "from"), text(request, "to"));
+            case "showAllPaths": return controller.showAllPaths(text(request, "from"), text(request, "to"));
+            case "showShortestPath": return controller.showShortestPath(text(request, "from"), text(request, "to"));
+            case "showRankedRoutes": return controller.showRankedRoutes(text(request, "from"), text(request, "to"));
+            case "showJourneys":
+                return controller.showJourneys(text(request, "from"), text(request, "to"), text(request, "departure"));
+            case "showReachable":
+                return controller.showReachable(text(request, "from"), (int) number(request, "minutes"),
+                        Boolean.TRUE.equals(request.get("stepFree")));
+            case "routes": return routes(request);
+            default: throw new IllegalArgumentException("unknown op " + op);
+        }
+    }
+
+    /**
+     * @return Per query the stations, minutes and changes of its route, or null
+     */
+    private List<Object> routes(Map<?, ?> request) {
+        if (!(request.get("queries") instanceof List)) throw new IllegalArgumentException("missing queries");
+        final List<RouteQuery> queries = new ArrayList<>();
+        for (Object query : (List<?>) request.get("queries")) {
+            if (!(query instanceof Map)) throw new IllegalArgumentException("a query must be an object");
+            final Map<?, ?> fields = (Map<?, ?>) query;
+            final RouteMode mode = fields.get("mode") == null ? RouteMode.FASTEST : RouteMode.valueOf(text(fields, "mode"));
+            queries.add(new RouteQuery(text(fields, "from"), text(fields, "to"), mode));
+        }
+        final List<Object> result = new ArrayList<>();
+        for (Route route : controller.routeList(queries)) { // Named by the graph they were found on, even mid-update
+            if (route == null) {
+                result.add(null);
+                continue;
+            }
+            final List<String> stations = new ArrayList<>();
+            for (int i = 0; i < route.length(); i++) stations.add(route.stationName(i));
+            final Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("stations", stations);
+            fields.put("minutes", route.minutes());
+            fields.put("changes", route.changes());
+            result.add(fields);
+        }
+        return result;
+    }
+
+    private static Map<String, Object> response(Object id, Object result, String error) {
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", id);
+        if (error == null) response.put("result", result);
+        else response.put("error", error);
+        return response;
+    }
+
+    private static String text(Map<?, ?> request, String name) {
+        final Object value = request.get(name);
+        if (value == null) throw new IllegalArgumentException("missing " + name);
+        if (!(value instanceof String)) throw new IllegalArgumentException(name + " must be a string");
+        return (String) value;
+    }
+
+    private static double number(Map<?, ?> request, String name) {
+        final Object value = request.get(name);
+        if (value == null) throw new IllegalArgumentException("missing " + name);
+        if (!(value instanceof Double)) throw new IllegalArgumentException(name + " must be a number");
+        return (Double) value;
+    }
+
+    /**
+     * A client connection: its reader dispatches every request line to a worker, the worker queues the response,
+     * and its writer writes every queued response before flushing once. A request holds its permit until its
+     * response is written.
+     */
+    private final class Connection {
+        /* Queued by the reader once it's done, a response is never empty */
+        private static final String END = "";
+
+        private final Socket client;
+        private final Semaphore running = new Semaphore(PIPELINE);
+        private final BlockingQueue<String> responses = new LinkedBlockingQueue<>();
+        private final Writer out;
+
+        private Connection(Socket client) throws IOException {
+            this.client = client;
+            out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        private void read() {
+            try (Reader stream = new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)) {
+                final LineReader in = new LineReader(stream);
+                String line;
+                while ((line = in.next()) != null) {
+                    if (line.isBlank()) continue;
+                    running.acquire();
+                    final String request = line;
+                    try {
+                        workers.execute(() -> responses.add(answer(request)));
+                    } catch (RejectedExecutionException e) {
+                        running.release();
+                        throw e;
+                    }
+                }
+                running.acquire(PIPELINE); // Let the running requests answer before closing
+                if (in.overflowed())
+                    responses.add(Json.write(new StringBuilder(), response(null, null, "request longer than " + MAX_LINE + " characters")).toString());
+            } catch (IOException | RejectedExecutionException ignored) { // The client went away, or the server closed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                responses.add(END);
+            }
+        }
+
+        /**
+         * Writes the responses until the reader is done. Once the client is gone the responses are dropped,
+         * still releasing their permits so the reader isn't left waiting.
+         */
+        private void write() {
+            boolean open = true;
+            try {
+                while (true) {
+                    String next = responses.take();
+                    int written = 0;
+                    boolean end = false;
+                    do {
+                        if (END.equals(next)) {
+                            end = true;
+                            break;
+                        }
+                        if (open)
+                            try {
+                                out.write(next);
+                                out.write('\n');
+                            } catch (IOException e) {
+                                open = false;
+                                close();
+                            }
+                        written++;
+                    } while ((next = responses.poll()) != null);
+                    if (open)
+                        try {
+                            out.flush();
+                        } catch (IOException e) {
+                            open = false;
+                            close();
+                        }
+                    running.release(written);
+                    if (end) return;
+                }
+            } catch (InterruptedException e) { // The server closed
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        private void close() {
+            connections.remove(this);
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads lines like {@link BufferedReader#readLine()}, but stops at a line longer than {@link #MAX_LINE} instead of
+     * buffering all of it
+     */
+    private static final class LineReader {
+        private final Reader in;
+        private final char[] buffer = new char[1 << 13];
+        private final StringBuilder line = new StringBuilder();
+        private int start = 0;
+        private int end = 0;
+        private boolean overflowed = false;
+
+        private LineReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * @return The next line without its terminator, null at the end of the stream or at a line too long
+         */
+        private String next() throws IOException {
+            line.setLength(0);
+            while (true) {
+                if (start == end) {
+                    final int read = in.read(buffer);
+                    if (read == -1) return line.length() == 0 ? null : line();
+                    start = 0;
+                    end = read;
+                }
+                int i = start;
+                while (i < end && buffer[i] != '\n') i++;
+                if (line.length() + i - start > MAX_LINE) {
+                    overflowed = true;
+                    return null;
+                }
+                line.append(buffer, start, i - start);
+                start = i < end ? i + 1 : end;
+                if (i < end) return line();
+            }
+        }
+
+        /**
+         * @return Whether reading stopped at a line too long
+         */
+        private boolean overflowed() {
+            return overflowed;
+        }
+
+        private String line() {
+            final int length = line.length();
+            return line.substring(0, length > 0 && line.charAt(length - 1) == '\r' ? length - 1 : length);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.marufeb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A route between two stations: the station ids with the minutes at which each is reached,
+ * split into the legs ridden on one line and the interchanges between them.
+ */
+public final class Route {
+    private final StationGraph graph;
+    private final Path path;
+    private final Leg[] legs;
+    private final Interchange[] interchanges;
+
+    private Route(StationGraph graph, Path path, Leg[] legs, Interchange[] interchanges) {
+        this.graph = graph;
+        this.path = path;
+        this.legs = legs;
+        this.interchanges = interchanges;
+    }
+
+    /**
+     * Splits a path into legs at every change of line. O(length)
+     * @param graph The graph the path belongs to
+     * @param path The path
+     * @return The route
+     */
+    public static Route of(StationGraph graph, Path path) {
+        final List<Leg> legs = new ArrayList<>();
+        final List<Interchange> interchanges = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i < path.length(); i++) {
+            if (i == path.length() - 1 || path.line(i) != path.line(i - 1)) {
+                final int line = path.line(i - 1);
+                final int[] stations = new int[i - start + 1];
+                for (int j = start; j <= i; j++) stations[j - start] = path.station(j);
+                legs.add(new Leg(line, graph.lineName(line), stations, path.minutesAt(start), path.minutesAt(i)));
+                if (i < path.length() - 1) {
+                    final int station = path.station(i);
+                    interchanges.add(new Interchange(station, graph.stationName(station), line, path.line(i),
+                            graph.stepFree(station), path.minutesAt(i)));
+                }
+                start = i;
+            }
+        }
+        return new Route(graph, path, legs.toArray(new Leg[0]), interchanges.toArray(new Interchange[0]));
+    }
+
+    public int minutes() {
+        return path.minutes();
+    }
+
+    public int changes() {
+        return interchanges.length;
+    }
+
+    /**
+     * @return Whether the route boards, alights and changes only at step-free stations
+     */
+    public boolean stepFree() {
+        if (!graph.stepFree(from()) || !graph.stepFree(to())) return false;
+        for (Interchange interchange : interchanges)
+            if (!interchange.stepFree()) return false;
+        return true;
+    }
+
+    /**
+     * @return The station ids in travel order
+     */
+    public int[] stations() {
+        return path.stations();
+    }
+
+    /**
+     * @return The minutes at which each station of {@link #stations()} is reached
+     */
+    public int[] times() {
+        final int[] times = new int[path.length()];
+        for (int i = 0; i < times.length; i++) times[i] = path.minutesAt(i);
+        return times;
+    }
+
+    public int length() {
+        return path.length();
+    }
+
+    public int station(int index) {
+        return path.station(index);
+    }
+
+    public String stationName(int index) {
+        return graph.stationName(path.station(index));
+    }
+
+    public int from() {
+        return path.from();
+    }
+
+    public int to() {
+        return path.to();
+    }
+
+    public List<Leg> legs() {
+        return List.of(legs);
+    }
+
+    public List<Interchange> interchanges() {
+        return List.of(interchanges);
+    }
+
+    /**
+     * @return The path the route was built from
+     */
+    public Path path() {
+        return path;
+    }
+}
@@ -0,0 +1,227 @@
+package com.marufeb;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, concurrent cache of route results keyed by (from, to, mode).
+ * The entries are spread over lock striped LRU maps, so popular pairs on different stripes never contend,
+ * and expire after a fixed time. Unreachable pairs are cached too.
+ * Invalidation removes only the routes running through the stations that changed; every invalidation
+ * also moves the cache to a new version. A result is stored only if it was computed on the network of the
+ * current version, so a query still running on the network from before an invalidation can't put its route back.
+ */
+public final class RouteCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long ttl;
+    private final AtomicLong version = new AtomicLong();
+
+    /* Metrics */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param capacity The maximum number of entries
+     * @param ttl The time an entry is kept for
+     * @param unit The unit of the time
+     */
+    public RouteCache(int capacity, long ttl, TimeUnit unit) {
+        this.ttl = unit.toNanos(ttl);
+        final int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(perStripe);
+    }
+
+    /**
+     * @return The current version, moved on by every invalidation. A network published after its
+     * invalidations are done takes this version, see {@link #get(int, int, RouteMode, long, Supplier)}
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Looks the route up, computing and storing it on a miss. Concurrent misses on the same key may both compute. O(1)
+     * @param from The start station id
+     * @param to The destination station id
+     * @param mode The kind of route
+     * @param version The version of the network the route is computed on, the route isn't stored if it is no longer current
+     * @param compute Computes the route, returning null if there is none
+     * @return The route, or null if there is none
+     */
+    public Route get(int from, int to, RouteMode mode, long version, Supplier<Route> compute) {
+        final long key = ((long) from << 32) | ((long) to << RouteMode.BITS) | mode.ordinal();
+        final Stripe stripe = stripes[stripe(key)];
+        final long now = System.nanoTime();
+        synchronized (stripe) {
+            final Cached entry = stripe.get(key);
+            if (entry != null) {
+                if (now - entry.expires < 0) {
+                    hits.increment();
+                    return entry.route;
+                }
+                stripe.remove(key);
+                expirations.increment();
+            }
+        }
+        misses.increment();
+        final Route route = compute.get();
+        synchronized (stripe) {
+            if (version == this.version.get()) stripe.put(key, new Cached(route, now + ttl));
+        }
+        return route;
+    }
+
+    /**
+     * Removes the routes which stop at or pass through a station. O(size)
+     */
+    public void invalidateStation(int station) {
+        final BitSet stations = new BitSet();
+        stations.set(station);
+        invalidateStations(stations);
+    }
+
+    /**
+     * Removes the routes which stop at or pass through any of the stations. O(size * route length)
+     */
+    public void invalidateStations(BitSet stations) {
+        invalidate(route -> {
+            for (int i = 0; i < route.length(); i++)
+                if (stations.get(route.station(i))) return true;
+            return false;
+        });
+    }
+
+    /**
+     * Removes the routes of one kind, including the cached absences of a route. O(size)
+     */
+    public void invalidate(RouteMode mode) {
+        version.incrementAndGet();
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                final Iterator<Long> keys = stripe.keySet().iterator();
+                while (keys.hasNext())
+                    if ((keys.next() & RouteMode.MASK) == mode.ordinal()) {
+                        keys.remove();
+                        invalidations.increment();
+                    }
+            }
+    }
+
+    /**
+     * Removes every entry, needed when routes may have become faster anywhere. O(size)
+     */
+    public void clear() {
+        version.incrementAndGet();
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                invalidations.add(stripe.size());
+                stripe.clear();
+            }
+    }
+
+    private void invalidate(Predicate<Route> stale) {
+        version.incrementAndGet();
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                final Iterator<Cached> entries = stripe.values().iterator();
+                while (entries.hasNext()) {
+                    final Route route = entries.next().route;
+                    if (route != null && stale.test(route)) {
+                        entries.remove();
+                        invalidations.increment();
+                    }
+                }
+            }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes)
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The entries dropped to make room
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The entries dropped because they were too old
+     */
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return The entries dropped because the network changed
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public String toString() {
+        final long hits = hits();
+        final long lookups = hits + misses();
+        return String.format("size=%d hits=%d misses=%d hitRate=%.3f evictions=%d expirations=%d invalidations=%d",
+                size(), hits, misses(), lookups == 0 ? 0.0 : (double) hits / lookups, evictions(), expirations(), invalidations());
+    }
+
+    private static int stripe(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 60) & (STRIPES - 1);
+    }
+
+    private static final class Cached {
+        private final Route route;
+        private final long expires;
+
+        Cached(Route route, long expires) {
+            this.route = route;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * An access ordered map which drops its least recently used entry when full. Guarded by itself
+     */
+    private final class Stripe extends LinkedHashMap<Long, Cached> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+}
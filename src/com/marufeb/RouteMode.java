@@ -0,0 +1,15 @@
+package com.marufeb;
+
+/**
+ * The kinds of route a query can ask for
+ */
+public enum RouteMode {
+    /** The fastest route */
+    FASTEST,
+    /** The fastest route boarding, alighting and changing only at step-free stations */
+    STEP_FREE;
+
+    /* The bits of a key holding the mode, enough for every mode */
+    static final int BITS = Math.max(1, 32 - Integer.numberOfLeadingZeros(values().length - 1));
+    static final int MASK = (1 << BITS) - 1;
+}
@@ -0,0 +1,61 @@
+package com.marufeb;
+
+import java.util.List;
+
+/**
+ * The typed route queries of the West Midlands Railway Route Finder,
+ * returning {@link Route}s rather than text.
+ */
+public interface RoutePlanner {
+	/**
+	 * Finds the fastest route between two stations.
+	 * @param fromStation	the start station
+	 * @param toStation	the destination station
+	 * @return	the fastest route, null if a station is unknown or there is no route
+	 */
+	Route shortestRoute(String fromStation, String toStation);
+
+	/**
+	 * Finds the fastest route for a wheelchair user, boarding, alighting and changing only at step-free stations.
+	 * @param fromStation	the start station
+	 * @param toStation	the destination station
+	 * @return	the fastest accessible route, null if a station is unknown or there is no such route
+	 */
+	Route accessibleRoute(String fromStation, String toStation);
+
+	/**
+	 * Finds the routes between two stations within the default bounds on changes beyond the fewest possible,
+	 * travel time and count.
+	 * @param fromStation	the start station
+	 * @param toStation	the destination station
+	 * @return	the fastest route, then the others in the order they were found, empty if a station is unknown or there is no route
+	 */
+	List<Route> allRoutes(String fromStation, String toStation);
+
+	/**
+	 * Finds in one search the routes that no other beats on travel time, changes and step-free access together,
+	 * among them the fastest route, the one with the fewest changes and the fastest accessible one.
+	 * @param fromStation	the start station
+	 * @param toStation	the destination station
+	 * @return	the routes fastest first, a step-free one before another as fast, empty if a station is unknown or there is no route
+	 */
+	List<Route> rankedRoutes(String fromStation, String toStation);
+
+	/**
+	 * Finds the timetabled journey arriving first, waits and interchange times included.
+	 * @param fromStation	the start station
+	 * @param toStation	the destination station
+	 * @param departure	the minute of the day from which the traveller is at the start station
+	 * @return	the journey, null if a station is unknown or no train gets there that day
+	 */
+	Journey earliestArrival(String fromStation, String toStation, int departure);
+
+	/**
+	 * Finds the timetabled journeys that no other beats on both arrival time and number of changes.
+	 * @param fromStation	the start station
+	 * @param toStation	the destination station
+	 * @param departure	the minute of the day from which the traveller is at the start station
+	 * @return	the journeys by ascending changes and descending arrival, empty if a station is unknown or there is none
+	 */
+	List<Journey> journeys(String fromStation, String toStation, int departure);
+}
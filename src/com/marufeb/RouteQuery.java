@@ -0,0 +1,32 @@
+package com.marufeb;
+
+/**
+ * One origin-destination pair of a batch query
+ */
+public final class RouteQuery {
+    private final String from;
+    private final String to;
+    private final RouteMode mode;
+
+    public RouteQuery(String from, String to, RouteMode mode) {
+        this.from = from;
+        this.to = to;
+        this.mode = mode;
+    }
+
+    public RouteQuery(String from, String to) {
+        this(from, to, RouteMode.FASTEST);
+    }
+
+    public String from() {
+        return from;
+    }
+
+    public String to() {
+        return to;
+    }
+
+    public RouteMode mode() {
+        return mode;
+    }
+}
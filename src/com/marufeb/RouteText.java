@@ -0,0 +1,83 @@
+package com.marufeb;
+
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Renders {@link Route}s as the text shown by the {@link TUI}
+ */
+final class RouteText {
+
+    private RouteText() {
+    }
+
+    /**
+     * Composes the pattern: Nuneaton -> Bermuda Park -> Bedworth (8 mins)
+     */
+    static String format(Route route) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < route.length(); i++)
+            builder.append(route.stationName(i)).append(i < route.length() - 1 ? " -> " : "");
+        return builder.append(" (").append(route.minutes()).append(" mins)").toString();
+    }
+
+    static String shortest(Route route) {
+        return route == null ? "" : "\nshortest: " + format(route);
+    }
+
+    static String accessible(Route route) {
+        return "\naccessible: " + format(route);
+    }
+
+    /**
+     * Composes one line per route: 1 changes: Nuneaton -> ... (8 mins)
+     */
+    static String all(List<Route> routes) {
+        final StringBuilder builder = new StringBuilder();
+        routes.forEach(route -> builder.append("\n").append(route.changes()).append(" changes: ").append(format(route)));
+        return builder.toString();
+    }
+
+    /**
+     * Composes one line per route: 1 changes, step-free: Nuneaton -> ... (8 mins)
+     */
+    static String ranked(List<Route> routes) {
+        final StringBuilder builder = new StringBuilder();
+        routes.forEach(route -> builder.append("\n").append(route.changes()).append(" changes")
+                .append(route.stepFree() ? ", step-free: " : ": ").append(format(route)));
+        return builder.toString();
+    }
+
+    /**
+     * Composes one line per station: Bedworth (4 mins, 0 changes)
+     */
+    static String reachable(Isochrone isochrone) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < isochrone.size(); i++)
+            builder.append("\n").append(isochrone.stationName(i)).append(" (").append(isochrone.minutes(i))
+                    .append(" mins, ").append(isochrone.changes(i)).append(" changes)");
+        return builder.toString();
+    }
+
+    /**
+     * Composes one line per train: 08:14 Hereford -> 09:58 Birmingham New Street (Birmingham – Worcester – Hereford)
+     */
+    static String format(Journey journey) {
+        final StringJoiner builder = new StringJoiner("\n");
+        for (Leg leg : journey.legs())
+            builder.add(Timetable.clock(leg.departure()) + " " + journey.stationName(leg.from()) + " -> "
+                    + Timetable.clock(leg.arrival()) + " " + journey.stationName(leg.to()) + " (" + leg.lineName() + ")");
+        return builder.toString();
+    }
+
+    /**
+     * Composes a block per journey, headed: 1 changes, arriving 09:58 (104 mins):
+     */
+    static String journeys(List<Journey> journeys) {
+        final StringBuilder builder = new StringBuilder();
+        journeys.forEach(journey -> builder.append("\n").append(journey.changes()).append(" changes, arriving ")
+                .append(Timetable.clock(journey.arrival())).append(" (").append(journey.minutes()).append(" mins):\n")
+                .append(format(journey)));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.marufeb;
+
+/**
+ * A point to point route query over a {@link StationGraph}
+ */
+public interface Router {
+    /**
+     * Finds the fastest route between two stations
+     * @param from The start station id
+     * @param to The destination station id
+     * @return The fastest path, or null if the destination can't be reached
+     */
+    Path route(int from, int to);
+
+    /**
+     * Adapts the router to a disruption update, reusing whatever the update didn't invalidate.
+     * This router is left as it was, so queries already running on it are not disturbed.
+     * @param update The update, built or not
+     * @return A router over the updated graph
+     */
+    Router update(StationGraph.Update update);
+}
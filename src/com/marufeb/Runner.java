@@ -1,18 +1,94 @@
 package com.marufeb;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Runner {
-    public static void main(String[] args) throws FileNotFoundException {
-//        final File lines = new File(parseFile("WMRlines.csv").getFile());
-        final File lines = new File("/Users/fabiomaruca/Documents/GitHub/West Midlands Railway (WMR) Network Route Finder/resources/WMRlines.csv");
-//        final File accesses = new File(parseFile("WMRstationsWithStepFreeAccess.csv").getFile());
-        final File accesses = new File("/Users/fabiomaruca/Documents/GitHub/West Midlands Railway (WMR) Network Route Finder/out/production/West Midlands Railway (WMR) Network Route Finder/WMRstationsWithStepFreeAccess.csv");
-        final ControllerImpl controller = new ControllerImpl(lines, accesses);
-//        System.out.println(controller.testGraph());
-        new TUI(controller);
+    /**
+     * Starts the TUI, or the query server.
+     * <pre>
+     * --data &lt;dir&gt;        The directory holding the CSV files, by default the classpath resources or ./resources
+     * --snapshot &lt;file&gt;   Starts from the binary snapshot, writing it first if it is missing or older than the CSV files
+     * --matrix &lt;file&gt;     Answers shortest routes from the precomputed matrix cache
+     * --metrics &lt;file&gt;    Writes the {@link Metrics} dump to the file on exit
+     * --departures &lt;file&gt; Answers timetabled queries from the departures, see {@link Timetable#load}
+     * --interchanges &lt;file&gt; The minimum interchange times for the departures
+     * --server &lt;port&gt;     Serves the queries on the loopback port instead of starting the TUI, see {@link QueryServer}
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        String data = null;
+        File snapshot = null;
+        File matrix = null;
+        File metrics = null;
+        File departures = null;
+        File interchanges = null;
+        int server = -1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--data": data = args[i + 1]; break;
+                case "--snapshot": snapshot = new File(args[i + 1]); break;
+                case "--matrix": matrix = new File(args[i + 1]); break;
+                case "--metrics": metrics = new File(args[i + 1]); break;
+                case "--departures": departures = new File(args[i + 1]); break;
+                case "--interchanges": interchanges = new File(args[i + 1]); break;
+                case "--server": server = Integer.parseInt(args[i + 1]); break;
+                default: System.err.println("Unknown option " + args[i]);
+            }
+        }
+        if (metrics != null) {
+            final File dump = metrics;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.write(dump.toPath(), Metrics.dump().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    System.err.println("Can't write the metrics: " + e.getMessage());
+                }
+            }));
+        }
+        final File lines = parseFile(data, "WMRlines.csv");
+        final File accesses = parseFile(data, "WMRstationsWithStepFreeAccess.csv");
+        final NetworkLoader.Network network = snapshot != null
+                ? NetworkSnapshot.cached(snapshot, lines, accesses)
+                : NetworkLoader.load(lines, accesses);
+        final ControllerImpl controller = new ControllerImpl(network);
+        controller.problems().forEach(System.err::println);
+        if (matrix != null && !controller.usePrecomputedMatrix(matrix))
+            System.err.println("Too many stations for the matrix, " + controller.graph().stationCount() + ", ignoring " + matrix);
+        if (departures != null) {
+            final List<String> problems = new ArrayList<>();
+            controller.useTimetable(Timetable.load(departures, interchanges, controller.graph(), controller.index(), problems));
+            problems.forEach(System.err::println);
+        }
+        if (server == -1) new TUI(controller);
+        else {
+            final QueryServer queries = new QueryServer(controller, server).start();
+            System.out.println("Serving queries on loopback port " + queries.port()
+                    + (queries.virtual() ? " with virtual threads" : ""));
+        }
+    }
+
+    /**
+     * @param data The data directory, or null to look on the classpath and then in ./resources
+     * @param name The file name
+     * @return The file
+     */
+    private static File parseFile(String data, String name) {
+        if (data != null) return new File(data, name);
+        final URL url = parseFile(name);
+        if (url != null && url.getProtocol().equals("file")) {
+            try {
+                return new File(url.toURI());
+            } catch (URISyntaxException ignored) {
+            }
+        }
+        return new File("resources", name);
     }
 
     public static URL parseFile(String name) {
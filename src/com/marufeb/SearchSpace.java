@@ -0,0 +1,70 @@
+package com.marufeb;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread scratch state of a graph search: a key and a parent per node plus a heap.
+ * Instead of clearing the arrays between queries every entry carries the generation that wrote it,
+ * so starting a search is O(1) and the graph itself is never written to.
+ * The slots let one query run a few searches side by side, like the two halves of a bidirectional search.
+ */
+final class SearchSpace {
+    static final int FORWARD = 0;
+    static final int BACKWARD = 1;
+    static final int SCRATCH = 2;
+    private static final ThreadLocal<SearchSpace[]> POOL = ThreadLocal.withInitial(() -> new SearchSpace[3]);
+
+    private int[] keys = new int[0];
+    private int[] parents = new int[0];
+    private int[] stamps = new int[0];
+    private int generation = 0;
+    final MinHeap heap = new MinHeap(64);
+
+    /**
+     * @param slot The slot, {@link #FORWARD}, {@link #BACKWARD} or {@link #SCRATCH}
+     * @param size The number of nodes of the search
+     * @return The calling thread's search space for the slot, with every node unvisited
+     */
+    static SearchSpace of(int slot, int size) {
+        final SearchSpace[] spaces = POOL.get();
+        SearchSpace space = spaces[slot];
+        if (space == null) space = spaces[slot] = new SearchSpace();
+        space.reset(size);
+        return space;
+    }
+
+    private void reset(int size) {
+        if (stamps.length < size) {
+            keys = new int[size];
+            parents = new int[size];
+            stamps = new int[size];
+            generation = 0;
+        }
+        if (++generation == 0) { // Wrapped around, old stamps could look current
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        heap.clear();
+    }
+
+    boolean visited(int node) {
+        return stamps[node] == generation;
+    }
+
+    /**
+     * @return The key of the node, {@link Dijkstra#INFINITY} if it wasn't reached in this search
+     */
+    int key(int node) {
+        return stamps[node] == generation ? keys[node] : Dijkstra.INFINITY;
+    }
+
+    int parent(int node) {
+        return parents[node];
+    }
+
+    void set(int node, int key, int parent) {
+        keys[node] = key;
+        parents[node] = parent;
+        stamps[node] = generation;
+    }
+}
@@ -0,0 +1,536 @@
+package com.marufeb;
+
+import java.util.*;
+
+/**
+ * The immutable WMR station graph.
+ * Station and line names are interned to dense int ids and the edges are stored in
+ * compressed sparse row form: the edges leaving station {@code v} are
+ * {@code firstEdge(v) .. endEdge(v) - 1}. Every CSV segment is stored in both directions.
+ * Step-free access is a bitset over the station ids.
+ * Disruptions are applied through {@link #update()}, which returns a new graph and leaves this one as it was,
+ * so a search that started on this graph finishes on it.
+ */
+public final class StationGraph {
+
+    private final String[] stations;
+    private final String[] lines;
+    private final Map<String, Integer> stationIds;
+    private final Map<String, Integer> lineIds;
+
+    /* CSR adjacency */
+    private final int[] offsets;
+    private final int[] sources;
+    private final int[] targets;
+    private final int[] minutes;
+    private final int[] edgeLines;
+
+    private final long[] stepFree;
+
+    /* Disruptions */
+    private final long[] closedStations;
+    private final long[] closedEdges;
+    private final long[] blocked; // The closed edges and the edges of closed stations
+
+    private StationGraph(String[] stations, String[] lines, Map<String, Integer> stationIds, Map<String, Integer> lineIds,
+                         int[] offsets, int[] sources, int[] targets, int[] minutes, int[] edgeLines, long[] stepFree) {
+        this(stations, lines, stationIds, lineIds, offsets, sources, targets, minutes, edgeLines, stepFree,
+                new long[words(stations.length)], new long[words(targets.length)], new long[words(targets.length)]);
+    }
+
+    private StationGraph(String[] stations, String[] lines, Map<String, Integer> stationIds, Map<String, Integer> lineIds,
+                         int[] offsets, int[] sources, int[] targets, int[] minutes, int[] edgeLines, long[] stepFree,
+                         long[] closedStations, long[] closedEdges, long[] blocked) {
+        this.stations = stations;
+        this.lines = lines;
+        this.stationIds = stationIds;
+        this.lineIds = lineIds;
+        this.offsets = offsets;
+        this.sources = sources;
+        this.targets = targets;
+        this.minutes = minutes;
+        this.edgeLines = edgeLines;
+        this.stepFree = stepFree;
+        this.closedStations = closedStations;
+        this.closedEdges = closedEdges;
+        this.blocked = blocked;
+    }
+
+    /**
+     * Rebuilds a graph from its CSR arrays, as stored in a snapshot. O(V + E)
+     * @param stations The station names by id
+     * @param lines The line names by id
+     * @param offsets The first edge of every station, then the edge count
+     * @param targets The target station of every edge
+     * @param minutes The travel time of every edge
+     * @param edgeLines The line of every edge
+     * @param stepFree The step-free bitset
+     * @return The graph
+     */
+    static StationGraph of(String[] stations, String[] lines, int[] offsets, int[] targets, int[] minutes,
+                           int[] edgeLines, long[] stepFree) {
+        final Map<String, Integer> stationIds = new HashMap<>(stations.length * 2);
+        for (int v = 0; v < stations.length; v++) stationIds.put(stations[v], v);
+        final Map<String, Integer> lineIds = new HashMap<>(lines.length * 2);
+        for (int l = 0; l < lines.length; l++) lineIds.put(lines[l], l);
+        final int[] sources = new int[targets.length];
+        for (int v = 0; v < stations.length; v++) Arrays.fill(sources, offsets[v], offsets[v + 1], v);
+        return new StationGraph(stations, lines, stationIds, lineIds, offsets, sources, targets, minutes, edgeLines, stepFree);
+    }
+
+    public int stationCount() {
+        return stations.length;
+    }
+
+    public int lineCount() {
+        return lines.length;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * @param station The station name
+     * @return The station id, or -1 if there is no such station
+     */
+    public int station(String station) {
+        final Integer id = stationIds.get(station);
+        return id == null ? -1 : id;
+    }
+
+    public String stationName(int station) {
+        return stations[station];
+    }
+
+    /**
+     * @param line The line name
+     * @return The line id, or -1 if there is no such line
+     */
+    public int line(String line) {
+        final Integer id = lineIds.get(line);
+        return id == null ? -1 : id;
+    }
+
+    public String lineName(int line) {
+        return lines[line];
+    }
+
+    public int firstEdge(int station) {
+        return offsets[station];
+    }
+
+    public int endEdge(int station) {
+        return offsets[station + 1];
+    }
+
+    public int source(int edge) {
+        return sources[edge];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public int minutes(int edge) {
+        return minutes[edge];
+    }
+
+    public int lineOf(int edge) {
+        return edgeLines[edge];
+    }
+
+    /**
+     * @return Whether passengers can board, alight and change at the station without steps
+     */
+    public boolean stepFree(int station) {
+        return get(stepFree, station);
+    }
+
+    /**
+     * @return Whether the station is closed, in which case none of its edges are open
+     */
+    public boolean closed(int station) {
+        return get(closedStations, station);
+    }
+
+    /**
+     * @return Whether the edge can be travelled: neither the segment nor its stations are closed
+     */
+    public boolean open(int edge) {
+        return !get(blocked, edge);
+    }
+
+    /**
+     * @return The minutes of the edge, {@link Dijkstra#INFINITY} if it isn't open
+     */
+    int weight(int edge) {
+        return get(blocked, edge) ? Dijkstra.INFINITY : minutes[edge];
+    }
+
+    /**
+     * Starts a batch of disruption changes
+     * @return The update, which builds a new graph
+     */
+    public Update update() {
+        return new Update(this);
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] bits, int i, boolean value) {
+        if (value) bits[i >>> 6] |= 1L << i;
+        else bits[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * A batch of disruption changes, applied copy-on-write: {@link #build()} returns a new graph which shares the
+     * names and the CSR layout with the old one, and copies only the arrays the batch writes to. Edge and station
+     * ids never change, so anything indexed by them, like a cache file or a hierarchy, can be patched.
+     */
+    public static final class Update {
+        private final StationGraph graph;
+        private int[] minutes;
+        private long[] stepFree;
+        private long[] closedStations;
+        private long[] closedEdges;
+        private int[] touched = new int[16]; // The edges whose weight may have changed
+        private int size = 0;
+        private StationGraph result;
+        private int[] changes;
+        private boolean faster = false;
+
+        private Update(StationGraph graph) {
+            this.graph = graph;
+            this.minutes = graph.minutes;
+            this.stepFree = graph.stepFree;
+            this.closedStations = graph.closedStations;
+            this.closedEdges = graph.closedEdges;
+        }
+
+        /**
+         * @throws IllegalArgumentException If there is no station with the id
+         */
+        public Update closeStation(int station) {
+            return station(station, true);
+        }
+
+        /**
+         * @throws IllegalArgumentException If there is no station with the id
+         */
+        public Update reopenStation(int station) {
+            return station(station, false);
+        }
+
+        /**
+         * Closes a segment in both directions
+         * @param line The line id, or -1 for every line between the stations
+         * @param from The first station id
+         * @param to The second station id
+         * @return this
+         * @throws IllegalArgumentException If no such segment exists, or a station or the line doesn't
+         */
+        public Update closeSegment(int line, int from, int to) {
+            for (int e : segment(line, from, to)) edge(e, true);
+            return this;
+        }
+
+        /**
+         * Reopens a segment in both directions
+         * @param line The line id, or -1 for every line between the stations
+         * @param from The first station id
+         * @param to The second station id
+         * @return this
+         * @throws IllegalArgumentException If no such segment exists, or a station or the line doesn't
+         */
+        public Update reopenSegment(int line, int from, int to) {
+            for (int e : segment(line, from, to)) edge(e, false);
+            return this;
+        }
+
+        /**
+         * Changes the travel time of a segment in both directions
+         * @param line The line id, or -1 for every line between the stations
+         * @param from The first station id
+         * @param to The second station id
+         * @param minutes The new travel time
+         * @return this
+         * @throws IllegalArgumentException If no such segment exists, a station or the line doesn't, or the time is negative
+         */
+        public Update minutes(int line, int from, int to, int minutes) {
+            if (minutes < 0) throw new IllegalArgumentException("Negative travel time: " + minutes);
+            final int[] edges = segment(line, from, to);
+            writable();
+            if (this.minutes == graph.minutes) this.minutes = graph.minutes.clone();
+            for (int e : edges) {
+                this.minutes[e] = minutes;
+                touch(e);
+            }
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If there is no station with the id
+         */
+        public Update stepFree(int station, boolean stepFree) {
+            check(station);
+            writable();
+            if (this.stepFree == graph.stepFree) this.stepFree = graph.stepFree.clone();
+            set(this.stepFree, station, stepFree);
+            return this;
+        }
+
+        /**
+         * Lays out the new graph, computing which edges are blocked. O(V + E)
+         * @return The updated graph, the same one on every call
+         */
+        public StationGraph build() {
+            if (result != null) return result;
+            long[] blocked = graph.blocked;
+            if (closedEdges != graph.closedEdges || closedStations != graph.closedStations) {
+                blocked = closedEdges.clone();
+                for (int e = 0; e < graph.targets.length; e++)
+                    if (get(closedStations, graph.sources[e]) || get(closedStations, graph.targets[e])) set(blocked, e, true);
+            }
+            result = new StationGraph(graph.stations, graph.lines, graph.stationIds, graph.lineIds, graph.offsets,
+                    graph.sources, graph.targets, minutes, graph.edgeLines, stepFree, closedStations, closedEdges, blocked);
+
+            final int[] changed = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                final int e = touched[i];
+                final int before = graph.weight(e);
+                final int after = result.weight(e);
+                if (before == after || (count > 0 && contains(changed, count, e))) continue;
+                changed[count++] = e;
+                if (after < before) faster = true;
+            }
+            changes = Arrays.copyOf(changed, count);
+            return result;
+        }
+
+        /**
+         * @return The graph the update started from
+         */
+        StationGraph before() {
+            return graph;
+        }
+
+        /**
+         * @return The edges, in both directions, whose {@link StationGraph#weight(int)} differs after {@link #build()}
+         */
+        int[] changes() {
+            build();
+            return changes;
+        }
+
+        /**
+         * @return Whether some edge became faster or was opened, so old travel times are no longer lower bounds
+         */
+        boolean faster() {
+            build();
+            return faster;
+        }
+
+        private Update station(int station, boolean closed) {
+            check(station);
+            writable();
+            if (closedStations == graph.closedStations) closedStations = graph.closedStations.clone();
+            set(closedStations, station, closed);
+            for (int e = graph.firstEdge(station); e < graph.endEdge(station); e++) {
+                touch(e);
+                final int w = graph.target(e);
+                for (int f = graph.firstEdge(w); f < graph.endEdge(w); f++)
+                    if (graph.target(f) == station) touch(f);
+            }
+            return this;
+        }
+
+        private void edge(int edge, boolean closed) {
+            writable();
+            if (closedEdges == graph.closedEdges) closedEdges = graph.closedEdges.clone();
+            set(closedEdges, edge, closed);
+            touch(edge);
+        }
+
+        /**
+         * @return The edges of the segment in both directions
+         */
+        private int[] segment(int line, int from, int to) {
+            if (line < -1 || line >= graph.lineCount()) throw new IllegalArgumentException("No line with id " + line);
+            check(from);
+            check(to);
+            int[] edges = new int[4];
+            int count = 0;
+            for (int[] ends : new int[][]{{from, to}, {to, from}})
+                for (int e = graph.firstEdge(ends[0]); e < graph.endEdge(ends[0]); e++)
+                    if (graph.target(e) == ends[1] && (line == -1 || graph.lineOf(e) == line)) {
+                        if (count == edges.length) edges = Arrays.copyOf(edges, count * 2);
+                        edges[count++] = e;
+                    }
+            if (count == 0)
+                throw new IllegalArgumentException("No segment between " + graph.stationName(from) + " and " + graph.stationName(to)
+                        + (line == -1 ? "" : " on " + graph.lineName(line)));
+            return Arrays.copyOf(edges, count);
+        }
+
+        /**
+         * @throws IllegalArgumentException If there is no station with the id
+         */
+        private void check(int station) {
+            if (station < 0 || station >= graph.stationCount()) throw new IllegalArgumentException("No station with id " + station);
+        }
+
+        private void writable() {
+            if (result != null) throw new IllegalStateException("The update has already been built");
+        }
+
+        private void touch(int edge) {
+            if (size == touched.length) touched = Arrays.copyOf(touched, size * 2);
+            touched[size++] = edge;
+        }
+
+        private static boolean contains(int[] values, int size, int value) {
+            for (int i = 0; i < size; i++)
+                if (values[i] == value) return true;
+            return false;
+        }
+    }
+
+    /**
+     * Collects the segments of the network and interns their names. O(1) per segment
+     */
+    public static final class Builder {
+        private final Map<String, Integer> stationIds = new HashMap<>();
+        private final Map<String, Integer> lineIds = new HashMap<>();
+        private final ArrayList<String> stations = new ArrayList<>();
+        private final ArrayList<String> lines = new ArrayList<>();
+        private int[] from = new int[64];
+        private int[] to = new int[64];
+        private int[] minutes = new int[64];
+        private int[] edgeLines = new int[64];
+        private int size = 0;
+        private final Set<String> stepFree = new HashSet<>();
+
+        /**
+         * Interns a station name
+         * @param name The station name, surrounding spaces are ignored
+         * @return The station id
+         */
+        public int station(String name) {
+            return intern(name.trim(), stationIds, stations);
+        }
+
+        /**
+         * Interns a line name
+         * @param name The line name, surrounding spaces are ignored
+         * @return The line id
+         */
+        public int line(String name) {
+            return intern(name.trim(), lineIds, lines);
+        }
+
+        /**
+         * @param name The station name, surrounding spaces are ignored
+         * @return Whether the station has been interned
+         */
+        public boolean contains(String name) {
+            return stationIds.containsKey(name.trim());
+        }
+
+        /**
+         * Marks a station as step-free. Stations which no segment reaches are ignored
+         * @param name The station name, surrounding spaces are ignored
+         * @return this
+         */
+        public Builder stepFree(String name) {
+            stepFree.add(name.trim());
+            return this;
+        }
+
+        /**
+         * Adds a segment which can be travelled in both directions
+         * @param line The line name
+         * @param from The first station
+         * @param to The second station
+         * @param minutes The travel time
+         * @return this
+         */
+        public Builder segment(String line, String from, String to, int minutes) {
+            return segment(line(line), station(from), station(to), minutes);
+        }
+
+        public Builder segment(int line, int from, int to, int minutes) {
+            if (size == this.from.length) {
+                final int capacity = size * 2;
+                this.from = Arrays.copyOf(this.from, capacity);
+                this.to = Arrays.copyOf(this.to, capacity);
+                this.minutes = Arrays.copyOf(this.minutes, capacity);
+                this.edgeLines = Arrays.copyOf(this.edgeLines, capacity);
+            }
+            this.from[size] = from;
+            this.to[size] = to;
+            this.minutes[size] = minutes;
+            this.edgeLines[size] = line;
+            size++;
+            return this;
+        }
+
+        /**
+         * Lays the segments out in CSR form with a counting sort. O(V + E)
+         * @return The graph
+         */
+        public StationGraph build() {
+            final int n = stations.size();
+            final int m = size * 2;
+            final int[] offsets = new int[n + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[from[i] + 1]++;
+                offsets[to[i] + 1]++;
+            }
+            for (int v = 0; v < n; v++)
+                offsets[v + 1] += offsets[v];
+
+            final int[] next = Arrays.copyOf(offsets, n);
+            final int[] sources = new int[m];
+            final int[] targets = new int[m];
+            final int[] weights = new int[m];
+            final int[] lines = new int[m];
+            for (int i = 0; i < size; i++) {
+                int e = next[from[i]]++;
+                sources[e] = from[i];
+                targets[e] = to[i];
+                weights[e] = minutes[i];
+                lines[e] = edgeLines[i];
+                e = next[to[i]]++;
+                sources[e] = to[i];
+                targets[e] = from[i];
+                weights[e] = minutes[i];
+                lines[e] = edgeLines[i];
+            }
+            final long[] access = new long[words(n)];
+            for (String name : stepFree) {
+                final Integer v = stationIds.get(name);
+                if (v != null) access[v >>> 6] |= 1L << v;
+            }
+            return new StationGraph(stations.toArray(new String[0]), this.lines.toArray(new String[0]),
+                    new HashMap<>(stationIds), new HashMap<>(lineIds), offsets, sources, targets, weights, lines, access);
+        }
+
+        private static int intern(String name, Map<String, Integer> ids, List<String> names) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            return id;
+        }
+    }
+}
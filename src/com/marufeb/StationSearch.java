@@ -0,0 +1,250 @@
+package com.marufeb;
+
+import java.util.*;
+
+/**
+ * Station name completion over the station dictionary only, never the graph.
+ * Names are normalised to lower case letters and digits separated by single spaces, then kept in two sorted
+ * prefix arrays: the whole names, and the names from their second, third... word on. A query is a binary search
+ * and a scan of the matching range, so "birmingham new st", "new st" and "Birmingham New Street " all complete
+ * to Birmingham New Street. When nothing matches, a trigram index picks the candidates for an edit distance
+ * fallback which forgives a few typos.
+ */
+public final class StationSearch {
+    private static final int FUZZY_CANDIDATES = 32;
+
+    private final String[] names;
+    private final String[] normalised;
+
+    /* Sorted prefix arrays, each key with its station id */
+    private final String[] firstKeys;
+    private final int[] firstIds;
+    private final String[] laterKeys;
+    private final int[] laterIds;
+
+    private final Map<Integer, int[]> trigrams; // Trigram -> the stations containing it, ascending
+
+    private StationSearch(String[] names, String[] normalised, String[] firstKeys, int[] firstIds, String[] laterKeys,
+                          int[] laterIds, Map<Integer, int[]> trigrams) {
+        this.names = names;
+        this.normalised = normalised;
+        this.firstKeys = firstKeys;
+        this.firstIds = firstIds;
+        this.laterKeys = laterKeys;
+        this.laterIds = laterIds;
+        this.trigrams = trigrams;
+    }
+
+    /**
+     * Builds the index from the station names of a graph. O(total name length * log V)
+     * @param graph The graph, only its names are read
+     * @return The index, whose ids are the graph's station ids
+     */
+    public static StationSearch of(StationGraph graph) {
+        final String[] names = new String[graph.stationCount()];
+        for (int v = 0; v < names.length; v++) names[v] = graph.stationName(v);
+        return of(names);
+    }
+
+    /**
+     * Builds the index. O(total name length * log V)
+     * @param names The station names by id
+     * @return The index
+     */
+    public static StationSearch of(String[] names) {
+        final int n = names.length;
+        final String[] normalised = new String[n];
+        final List<String> later = new ArrayList<>();
+        final List<Integer> laterOwners = new ArrayList<>();
+        final Map<Integer, List<Integer>> postings = new HashMap<>();
+        for (int v = 0; v < n; v++) {
+            final String name = normalise(names[v]);
+            normalised[v] = name;
+            for (int i = name.indexOf(' '); i != -1; i = name.indexOf(' ', i + 1)) {
+                later.add(name.substring(i + 1));
+                laterOwners.add(v);
+            }
+            final Set<Integer> own = new HashSet<>();
+            for (int trigram : trigrams(name))
+                if (own.add(trigram)) postings.computeIfAbsent(trigram, k -> new ArrayList<>()).add(v);
+        }
+
+        final Integer[] first = new Integer[n];
+        for (int v = 0; v < n; v++) first[v] = v;
+        Arrays.sort(first, Comparator.comparing(v -> normalised[v]));
+        final String[] firstKeys = new String[n];
+        final int[] firstIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            firstKeys[i] = normalised[first[i]];
+            firstIds[i] = first[i];
+        }
+
+        final Integer[] order = new Integer[later.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparing(later::get));
+        final String[] laterKeys = new String[order.length];
+        final int[] laterIds = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            laterKeys[i] = later.get(order[i]);
+            laterIds[i] = laterOwners.get(order[i]);
+        }
+
+        final Map<Integer, int[]> trigrams = new HashMap<>(postings.size() * 2);
+        postings.forEach((trigram, stations) -> trigrams.put(trigram, stations.stream().mapToInt(Integer::intValue).toArray()));
+        return new StationSearch(names, normalised, firstKeys, firstIds, laterKeys, laterIds, trigrams);
+    }
+
+    /**
+     * Ranks the stations matching a partly typed name: names starting with the query first, then names with a
+     * later word starting with it, each alphabetically, or the closest names by edit distance if there are none.
+     * O(log V + limit) for prefix matches
+     * @param query The typed text
+     * @param limit The maximum number of results
+     * @return The station ids, best first
+     */
+    public int[] search(String query, int limit) {
+        final String key = normalise(query);
+        if (key.isEmpty() || limit <= 0) return new int[0];
+        final int[] found = new int[limit];
+        int size = prefixes(firstKeys, firstIds, key, found, 0);
+        size = prefixes(laterKeys, laterIds, key, found, size);
+        if (size > 0) return Arrays.copyOf(found, size);
+        final long[] fuzzy = fuzzy(key);
+        final int[] result = new int[Math.min(limit, fuzzy.length)];
+        for (int i = 0; i < result.length; i++) result[i] = (int) fuzzy[i];
+        return result;
+    }
+
+    /**
+     * @param query The typed text
+     * @param limit The maximum number of results
+     * @return The names of {@link #search(String, int)}
+     */
+    public List<String> complete(String query, int limit) {
+        final List<String> result = new ArrayList<>();
+        for (int v : search(query, limit)) result.add(names[v]);
+        return result;
+    }
+
+    /**
+     * Resolves a name as typed by a user: an exact match up to case, spaces and punctuation, otherwise the only
+     * station the text completes to, otherwise the single closest name by edit distance
+     * @param name The typed name
+     * @return The station id, or -1 if there is no match or it is ambiguous
+     */
+    public int resolve(String name) {
+        final String key = normalise(name);
+        if (key.isEmpty()) return -1;
+        final int exact = Arrays.binarySearch(firstKeys, key);
+        if (exact >= 0) return firstIds[exact];
+        final int[] found = new int[2];
+        int size = prefixes(firstKeys, firstIds, key, found, 0);
+        size = prefixes(laterKeys, laterIds, key, found, size);
+        if (size > 0) return size == 1 ? found[0] : -1;
+        final long[] fuzzy = fuzzy(key);
+        if (fuzzy.length == 0) return -1;
+        return fuzzy.length == 1 || (fuzzy[0] >>> 48) < (fuzzy[1] >>> 48) ? (int) fuzzy[0] : -1;
+    }
+
+    /**
+     * @return The name in lower case, with every run of other characters than letters and digits as one space
+     * and apostrophes dropped, so that "King's Norton" and "Kings Norton" are the same
+     */
+    static String normalise(String name) {
+        final StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) builder.append(Character.toLowerCase(c));
+            else if (c != '\'' && c != '’' && builder.length() > 0 && builder.charAt(builder.length() - 1) != ' ')
+                builder.append(' ');
+        }
+        if (builder.length() > 0 && builder.charAt(builder.length() - 1) == ' ') builder.setLength(builder.length() - 1);
+        return builder.toString();
+    }
+
+    /**
+     * Appends the stations whose key starts with the prefix, skipping those already found, until the result is full
+     * @return The new size of the result
+     */
+    private static int prefixes(String[] keys, int[] ids, String prefix, int[] found, int size) {
+        int i = Arrays.binarySearch(keys, prefix);
+        if (i < 0) i = -i - 1;
+        for (; i < keys.length && size < found.length && keys[i].startsWith(prefix); i++) {
+            if (contains(found, size, ids[i])) continue;
+            found[size++] = ids[i];
+        }
+        return size;
+    }
+
+    /**
+     * Scores the stations sharing the most trigrams with the query by their prefix edit distance.
+     * @return The acceptable matches as (distance << 48 | station), ascending
+     */
+    private long[] fuzzy(String key) {
+        final SearchSpace shared = SearchSpace.of(SearchSpace.SCRATCH, names.length); // Key: trigrams in common
+        final List<Integer> candidates = new ArrayList<>();
+        for (int trigram : trigrams(key)) {
+            final int[] stations = trigrams.get(trigram);
+            if (stations == null) continue;
+            for (int v : stations) {
+                if (!shared.visited(v)) candidates.add(v);
+                shared.set(v, shared.visited(v) ? shared.key(v) + 1 : 1, -1);
+            }
+        }
+        candidates.sort((a, b) -> shared.key(b) - shared.key(a));
+
+        final int allowed = key.length() <= 4 ? 1 : key.length() <= 8 ? 2 : 3;
+        final List<Long> matches = new ArrayList<>();
+        for (int i = 0; i < candidates.size() && i < FUZZY_CANDIDATES; i++) {
+            final int v = candidates.get(i);
+            final String name = normalised[v];
+            int distance = prefixDistance(key, name, 0, allowed);
+            for (int w = name.indexOf(' '); w != -1; w = name.indexOf(' ', w + 1))
+                distance = Math.min(distance, prefixDistance(key, name, w + 1, allowed));
+            if (distance <= allowed) matches.add(((long) distance << 48) | ((long) -shared.key(v) & 0xffff) << 32 | v);
+        }
+        return matches.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    /**
+     * Only prefixes up to {@code allowed} chars longer than the query can be within the allowed distance,
+     * so the rest of the name is never looked at. O(query * (query + allowed))
+     * @return The edit distance between the query and the closest prefix of the name from an offset on
+     */
+    private static int prefixDistance(String query, String name, int offset, int allowed) {
+        final int length = Math.min(name.length() - offset, query.length() + allowed);
+        int[] previous = new int[length + 1];
+        int[] current = new int[length + 1];
+        for (int j = 0; j <= length; j++) previous[j] = j;
+        for (int i = 1; i <= query.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= length; j++) {
+                final int substitution = previous[j - 1] + (query.charAt(i - 1) == name.charAt(offset + j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int distance : previous) best = Math.min(best, distance);
+        return best;
+    }
+
+    /**
+     * @return The trigrams of the name padded with a space on both ends, three chars packed into an int each
+     */
+    private static int[] trigrams(String name) {
+        final String padded = " " + name + " ";
+        final int[] result = new int[Math.max(0, padded.length() - 2)];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (padded.charAt(i) & 0x3ff) << 20 | (padded.charAt(i + 1) & 0x3ff) << 10 | (padded.charAt(i + 2) & 0x3ff);
+        return result;
+    }
+
+    private static boolean contains(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++)
+            if (values[i] == value) return true;
+        return false;
+    }
+}
@@ -11,6 +11,23 @@ import java.util.Scanner;
  */
 public class TUI {
 
+	/* The line menu, lettered from a: the label it prints and the line's name in the WMR lines file */
+	private static final String[][] LINES = {
+			{"Birmingham -- Dorridge -- Leamington Spa", "Birmingham – Dorridge – Leamington Spa"},
+			{"Cross City Line", "Cross City Line"},
+			{"Birmingham -- Rugby -- Northampton -- London", "Birmingham – Rugby – Northampton – London"},
+			{"Nuneaton -- Coventry", "Nuneaton – Coventry"},
+			{"Watford -- St Albans Abbey", "Watford – St Albans Abbey"},
+			{"Bletchley -- Bedford", "Bletchley – Bedford"},
+			{"Crewe -- Stoke -- Stafford -- London", "Crewe – Stoke – Stafford – London"},
+			{"Worcester -- Birmingham", "Worcester – Birmingham"},
+			{"Smethwick Galton Bridge Connections", "Smethwick Galton Bridge Connections"},
+			{"Birmingham -- Stratford-upon-Avon", "Birmingham – Stratford-upon-Avon"},
+			{"Birmingham -- Wolverhampton -- Telford -- Shrewsbury", "Bimingham – Wolverhampton – Telford – Shrewsbury"},
+			{"Birmingham -- Worcester -- Hereford", "Birmingham – Worcester – Hereford"},
+			{"Birmingham -- Walsall -- Rugeley", "Birmingham – Walsall – Rugeley"}
+	};
+
 	private final Controller controller;
 	private final Scanner stdIn;
 	
@@ -48,13 +65,13 @@ public class TUI {
 			display("Lists all termini along a line...");
 			display("Enter the ID of the required line.");
 			display(allWMRlines());
-			display(controller.listTermini(stdIn.nextLine().trim()));
+			display(controller.listTermini(line(stdIn.nextLine().trim())));
 			break;
 		case "2" : // Lists all stations in a line
 			display("Lists all stations along a line...");
 			display("Enter the ID of the line you'd like to view:");
 			display(allWMRlines());
-			display(controller.listStationsInLine(stdIn.nextLine().trim()));
+			display(controller.listStationsInLine(line(stdIn.nextLine().trim())));
 			break;
 		case "3" : // List all lines in the network and their total travel time
 			display("Lists all lines and their travel time...");
@@ -98,19 +115,21 @@ public class TUI {
 	 * @return info about all West Midlands Railway lines
 	 */
 	private static String allWMRlines() {
-		return "\na. Birmingham -- Dorridge -- Leamington Spa"+
-				"\nb. Cross City Line" +
-				"\nc. Birmingham -- Rugby -- Northampton -- London" +
-				"\nd. Nuneaton -- Coventry" +
-				"\ne. Watford -- St Albans Abbey" +
-				"\nf. Bletchley -- Bedford" +
-				"\ng. Crewe -- Stoke -- Stafford -- London" +
-				"\nh. Worcester -- Birmingham" +
-				"\ni. Smethwick Galton Bridge Connections" +
-				"\nj. Birmingham -- Stratford-upon-Avon" +
-				"\nk. Birmingham -- Wolverhampton -- Telford -- Shrewsbury" +
-				"\nl. Birmingham -- Worcester -- Hereford" +
-				"\nm. Birmingham -- Walsall -- Rugeley";
+		final StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < LINES.length; i++)
+			lines.append('\n').append((char) ('a' + i)).append(". ").append(LINES[i][0]);
+		return lines.toString();
+	}
+
+	/**
+	 * Returns the name of a line chosen from the line menu.
+	 * @param choice	a letter of the line menu, or a line name
+	 * @return	the line's name in the lines file, or the choice itself if it isn't a letter of the menu
+	 */
+	private static String line(String choice) {
+		if (choice.length() != 1) return choice;
+		final int letter = Character.toLowerCase(choice.charAt(0)) - 'a';
+		return letter >= 0 && letter < LINES.length ? LINES[letter][1] : choice;
 	}
 	/**
 	 * Returns a string representation of a brief title for this application as the header.
@@ -0,0 +1,552 @@
+package com.marufeb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Timetabled routing with the Connection Scan Algorithm. Every run of a train between two consecutive stops is
+ * a connection, and the connections are kept in flat arrays sorted by departure, so a query is a single forward
+ * scan from the first connection leaving at the requested time: a train is boarded wherever the traveller already
+ * is by then, allowing the station's minimum interchange time after arriving on another train, and every later
+ * connection of a boarded train arrives somewhere. The scan ends at the first connection leaving after the best
+ * arrival at the destination.
+ * The Pareto search scans in rounds, round k boarding only from the arrivals of round k - 1, so round k finds the
+ * earliest arrivals with at most k changes and the rounds together give every (arrival, changes) trade-off.
+ * Times are minutes of the day, and may run past midnight.
+ */
+public final class Timetable {
+    /* The minimum interchange time of the stations the interchanges file doesn't list */
+    static final int DEFAULT_INTERCHANGE = 5;
+    /* Times must stay below this for the sort keys, about three weeks */
+    private static final int MAX_MINUTE = 1 << 15;
+
+    private final StationGraph graph;
+    private final int[] interchange; // Minutes per station
+
+    /* The trips as built, each one's connections in travel order, kept to filter and re-time them on updates */
+    private final Trips source;
+
+    private final int tripCount;
+    private final int[] tripLines;
+    /* Connections sorted by departure, then arrival */
+    private final int[] departures;
+    private final int[] arrivals;
+    private final int[] froms;
+    private final int[] tos;
+    private final int[] trips;
+    private final int[] next; // The next connection of the same trip, -1 at its end
+
+    private Timetable(StationGraph graph, int[] interchange, Trips source) {
+        this.graph = graph;
+        this.interchange = interchange;
+        this.source = source;
+
+        // Time every trip from its first departure on the graph's segment minutes, then drop the connections the
+        // graph has closed, splitting their trips where they do, and those pushed too late
+        final int size = source.size;
+        final int[] leaves = new int[size];
+        final int[] reaches = new int[size];
+        final int[] kept = new int[size];
+        final int[] keptTrips = new int[size];
+        final int[] lines = new int[source.tripCount + size];
+        int count = 0;
+        int trip = -1;
+        for (int i = 0; i < size; i++) {
+            final int line = source.lines[source.trips[i]];
+            leaves[i] = i == 0 || source.trips[i - 1] != source.trips[i] ? source.departures[i] : reaches[i - 1];
+            reaches[i] = leaves[i] + minutes(graph, line, source.froms[i], source.tos[i]);
+            if (!open(graph, line, source.froms[i], source.tos[i]) || reaches[i] >= MAX_MINUTE) continue;
+            if (count == 0 || source.trips[kept[count - 1]] != source.trips[i] || kept[count - 1] != i - 1)
+                lines[++trip] = line;
+            keptTrips[count] = trip;
+            kept[count++] = i;
+        }
+        tripCount = trip + 1;
+        tripLines = Arrays.copyOf(lines, tripCount);
+
+        final long[] keys = new long[count];
+        for (int j = 0; j < count; j++)
+            keys[j] = (long) leaves[kept[j]] << 47 | (long) reaches[kept[j]] << 32 | j;
+        Arrays.sort(keys);
+        departures = new int[count];
+        arrivals = new int[count];
+        froms = new int[count];
+        tos = new int[count];
+        trips = new int[count];
+        next = new int[count];
+        final int[] position = new int[count];
+        for (int c = 0; c < count; c++) {
+            final int j = (int) keys[c];
+            final int i = kept[j];
+            position[j] = c;
+            departures[c] = leaves[i];
+            arrivals[c] = reaches[i];
+            froms[c] = source.froms[i];
+            tos[c] = source.tos[i];
+            trips[c] = keptTrips[j];
+        }
+        for (int j = 0; j < count; j++)
+            next[position[j]] = j + 1 < count && keptTrips[j + 1] == keptTrips[j] ? position[j + 1] : -1;
+    }
+
+    /**
+     * Reads the departures and the minimum interchange times.
+     * <pre>
+     * departures: TRAIN LINE, FROM STATION, TO STATION, FIRST DEPARTURE, LAST DEPARTURE, EVERY (MINS)
+     * interchanges: STATION, MINIMUM INTERCHANGE (MINS)
+     * </pre>
+     * A departures row is a service running the line from one of its stations to another, both usually termini,
+     * leaving at the first departure and then at the interval up to the last one, with times as H:MM.
+     * Malformed rows are skipped and reported.
+     * @param departures The departures file
+     * @param interchanges The interchanges file, or null to use {@link #DEFAULT_INTERCHANGE} minutes everywhere
+     * @param graph The graph the lines and stations belong to
+     * @param index The index of the graph, for the order of the stations on the lines
+     * @param problems Receives the malformed rows
+     * @return The timetable
+     * @throws IOException If a file can't be read
+     */
+    public static Timetable load(File departures, File interchanges, StationGraph graph, NetworkIndex index,
+                                 List<String> problems) throws IOException {
+        final long start = Metrics.start();
+        final Builder builder = new Builder(graph, index);
+        if (interchanges != null)
+            CsvReader.read(interchanges, true, new CRC32(), problems, (line, fields) -> {
+                final String where = interchanges.getName() + ":" + line + ": ";
+                if (fields.size() != 2) {
+                    problems.add(where + "expected 2 fields, found " + fields.size());
+                    return;
+                }
+                final int station = graph.station(fields.get(0));
+                if (station == -1) {
+                    problems.add(where + "unknown station " + fields.get(0));
+                    return;
+                }
+                try {
+                    builder.interchange(station, Integer.parseInt(fields.get(1)));
+                } catch (IllegalArgumentException e) {
+                    problems.add(where + e.getMessage());
+                }
+            });
+        CsvReader.read(departures, true, new CRC32(), problems, (line, fields) -> {
+            final String where = departures.getName() + ":" + line + ": ";
+            if (fields.size() != 6) {
+                problems.add(where + "expected 6 fields, found " + fields.size());
+                return;
+            }
+            final int id = index.line(NetworkLoader.canonicalLine(fields.get(0)));
+            final int from = graph.station(fields.get(1));
+            final int to = graph.station(fields.get(2));
+            if (id == -1 || from == -1 || to == -1) {
+                problems.add(where + "unknown " + (id == -1 ? "line " + fields.get(0)
+                        : "station " + (from == -1 ? fields.get(1) : fields.get(2))));
+                return;
+            }
+            try {
+                builder.service(id, from, to, minute(fields.get(3)), minute(fields.get(4)), Integer.parseInt(fields.get(5)));
+            } catch (IllegalArgumentException e) {
+                problems.add(where + e.getMessage());
+            }
+        });
+        final Timetable timetable = builder.build();
+        Metrics.BUILD_TIMETABLE.stop(start, departures.getName(), null);
+        return timetable;
+    }
+
+    /**
+     * Builds a clock-face timetable for a network which has none: every line runs from each terminus to every
+     * other terminus of the same part of the line, at a fixed interval.
+     * @param graph The graph
+     * @param index The index of the graph
+     * @param first The first departure from each terminus
+     * @param last The last departure from each terminus
+     * @param every The minutes between departures
+     * @return The timetable, with {@link #DEFAULT_INTERCHANGE} minutes to change anywhere
+     */
+    public static Timetable uniform(StationGraph graph, NetworkIndex index, int first, int last, int every) {
+        final Builder builder = new Builder(graph, index);
+        for (int line = 0; line < graph.lineCount(); line++) {
+            final int[] termini = index.termini(line); // In walk order, like the parts
+            for (int t = 0, i = 0, part = 0; t < index.length(line) && i < termini.length; t++) {
+                if (index.parent(line, t) == -1) part = i;
+                if (termini[i] != t) continue;
+                for (int j = part; j < i; j++) {
+                    final int a = index.station(line, termini[j]);
+                    final int b = index.station(line, termini[i]);
+                    builder.service(line, a, b, first, last, every);
+                    builder.service(line, b, a, first, last, every);
+                }
+                i++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Drops the connections through closed stations and segments of an updated graph, and re-times the trips on
+     * its segment minutes, every train keeping its first departure. Trains still run the rest of their trips,
+     * a closure splitting a trip in two, but not past {@link #MAX_MINUTE}. O(C log C)
+     * @param graph The updated graph, with the same station and line ids
+     * @return The timetable on the updated graph
+     */
+    public Timetable update(StationGraph graph) {
+        return new Timetable(graph, interchange, source);
+    }
+
+    /**
+     * Finds the earliest arrival. O(connections) at most
+     * @param from The start station id
+     * @param to The destination station id
+     * @param departure The minute of the day from which the traveller is at the start station
+     * @return The journey arriving first, the fewest changes among equal arrivals not guaranteed,
+     * or null if there is none that day or the stations are the same
+     */
+    public Journey earliestArrival(int from, int to, int departure) {
+        if (from == to) return null;
+        final SearchSpace reached = SearchSpace.of(SearchSpace.FORWARD, graph.stationCount()); // Key: arrival, parent: the connection arriving
+        final SearchSpace boarded = SearchSpace.of(SearchSpace.BACKWARD, tripCount); // Key: the connection boarded at
+        reached.set(from, departure, -1);
+        int boardings = 0;
+        int scanned = 0;
+        for (int c = first(departure); c < departures.length && departures[c] < reached.key(to); c++) {
+            scanned++;
+            final int trip = trips[c];
+            if (!boarded.visited(trip)) {
+                final int s = froms[c];
+                if (!reached.visited(s) || reached.key(s) + (s == from ? 0 : interchange[s]) > departures[c]) continue;
+                boarded.set(trip, c, -1);
+                boardings++;
+            }
+            if (arrivals[c] < reached.key(tos[c])) reached.set(tos[c], arrivals[c], c);
+        }
+        Metrics.CONNECTION_SCAN.record(boardings, scanned);
+        if (!reached.visited(to)) return null;
+
+        final List<Leg> legs = new ArrayList<>();
+        for (int s = to; s != from; ) {
+            final int exit = reached.parent(s);
+            final int enter = boarded.key(trips[exit]);
+            legs.add(leg(enter, exit));
+            s = froms[enter];
+        }
+        Collections.reverse(legs);
+        return new Journey(graph, legs.toArray(new Leg[0]));
+    }
+
+    /**
+     * Finds the journeys no other beats on both arrival and changes. O(rounds * (connections + stations))
+     * @param from The start station id
+     * @param to The destination station id
+     * @param departure The minute of the day from which the traveller is at the start station
+     * @param maxChanges The most changes a journey may have
+     * @return The journeys by ascending changes and so descending arrival, empty if there is none
+     */
+    public List<Journey> journeys(int from, int to, int departure, int maxChanges) {
+        final List<Journey> result = new ArrayList<>();
+        if (from == to || maxChanges < 0) return result;
+        final int n = graph.stationCount();
+        final int rounds = maxChanges + 1;
+        final int[][] arrival = new int[rounds][];
+        final int[][] exit = new int[rounds][]; // The connection the label of the round arrived with, -1 if kept
+        final int[][] enter = new int[rounds][]; // The connection its train was boarded at
+        final int start = first(departure);
+        int boardings = 0;
+        int scanned = 0;
+        for (int k = 0; k < rounds; k++) {
+            final int[] previous = k == 0 ? null : arrival[k - 1];
+            if (previous == null) {
+                arrival[k] = new int[n];
+                Arrays.fill(arrival[k], Dijkstra.INFINITY);
+                arrival[k][from] = departure;
+            } else arrival[k] = previous.clone();
+            exit[k] = new int[n];
+            enter[k] = new int[n];
+            Arrays.fill(exit[k], -1);
+
+            final SearchSpace boarded = SearchSpace.of(SearchSpace.BACKWARD, tripCount); // Key: the connection boarded at
+            final int[] current = arrival[k];
+            boolean improved = false;
+            for (int c = start; c < departures.length && departures[c] < current[to]; c++) {
+                scanned++;
+                final int trip = trips[c];
+                if (!boarded.visited(trip)) {
+                    final int s = froms[c];
+                    final int ready = s == from ? departure
+                            : previous == null || previous[s] == Dijkstra.INFINITY ? Dijkstra.INFINITY
+                            : previous[s] + interchange[s];
+                    if (ready > departures[c]) continue;
+                    boarded.set(trip, c, -1);
+                    boardings++;
+                }
+                final int t = tos[c];
+                if (arrivals[c] < current[t]) {
+                    current[t] = arrivals[c];
+                    exit[k][t] = c;
+                    enter[k][t] = boarded.key(trip);
+                    improved = true;
+                }
+            }
+            if (exit[k][to] != -1) result.add(journey(to, k, exit, enter));
+            if (!improved) break;
+        }
+        Metrics.CONNECTION_SCAN.record(boardings, scanned);
+        return result;
+    }
+
+    /**
+     * Follows the labels back from a station, stepping down to the round which set each one
+     */
+    private Journey journey(int to, int round, int[][] exit, int[][] enter) {
+        final List<Leg> legs = new ArrayList<>();
+        for (int s = to, k = round; ; k--) {
+            while (k >= 0 && exit[k][s] == -1) k--;
+            if (k < 0) break; // The start
+            legs.add(leg(enter[k][s], exit[k][s]));
+            s = froms[enter[k][s]];
+        }
+        Collections.reverse(legs);
+        return new Journey(graph, legs.toArray(new Leg[0]));
+    }
+
+    /**
+     * @return The leg riding a trip from one of its connections to a later one
+     */
+    private Leg leg(int enter, int exit) {
+        int length = 2;
+        for (int c = enter; c != exit; c = next[c]) length++;
+        final int[] stations = new int[length];
+        stations[0] = froms[enter];
+        int i = 1;
+        for (int c = enter; ; c = next[c]) {
+            stations[i++] = tos[c];
+            if (c == exit) break;
+        }
+        final int line = tripLines[trips[enter]];
+        return new Leg(line, graph.lineName(line), stations, departures[enter], arrivals[exit]);
+    }
+
+    /**
+     * @return The first connection leaving at or after a minute. O(log connections)
+     */
+    private int first(int minute) {
+        int low = 0;
+        int high = departures.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (departures[middle] < minute) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return The number of connections
+     */
+    public int size() {
+        return departures.length;
+    }
+
+    /**
+     * @return The number of trains run
+     */
+    public int trips() {
+        return tripCount;
+    }
+
+    /**
+     * @return The minimum interchange time at a station
+     */
+    public int interchange(int station) {
+        return interchange[station];
+    }
+
+    /**
+     * @param clock A time as H:MM, the hours may go past 23 for trains after midnight
+     * @return The minute of the day
+     * @throws IllegalArgumentException If the time is malformed
+     */
+    public static int minute(String clock) {
+        final int colon = clock.indexOf(':');
+        try {
+            if (colon > 0 && clock.length() - colon == 3) {
+                final int hours = Integer.parseInt(clock.substring(0, colon).trim());
+                final int minutes = Integer.parseInt(clock.substring(colon + 1));
+                if (hours >= 0 && minutes >= 0 && minutes < 60) return hours * 60 + minutes;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("not a time: " + clock);
+    }
+
+    /**
+     * @return A minute of the day as HH:MM
+     */
+    public static String clock(int minute) {
+        return String.format("%02d:%02d", minute / 60, minute % 60);
+    }
+
+    /**
+     * @return The minutes of the line's fastest segment between two adjacent stations, closed or not, as the
+     * builder times the trips, see {@link NetworkIndex#minutesAt(int, int)}
+     */
+    private static int minutes(StationGraph graph, int line, int from, int to) {
+        int best = Integer.MAX_VALUE;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++)
+            if (graph.target(e) == to && graph.lineOf(e) == line) best = Math.min(best, graph.minutes(e));
+        return best;
+    }
+
+    /**
+     * @return Whether the line still runs between two adjacent stations
+     */
+    private static boolean open(StationGraph graph, int line, int from, int to) {
+        if (graph.closed(from) || graph.closed(to)) return false;
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++)
+            if (graph.target(e) == to && graph.lineOf(e) == line && graph.open(e)) return true;
+        return false;
+    }
+
+    /**
+     * The connections of every trip in travel order
+     */
+    private static final class Trips {
+        private final int[] lines;
+        private final int tripCount;
+        private final int[] departures;
+        private final int[] froms;
+        private final int[] tos;
+        private final int[] trips;
+        private final int size;
+
+        Trips(int[] lines, int tripCount, int[] departures, int[] froms, int[] tos, int[] trips, int size) {
+            this.lines = lines;
+            this.tripCount = tripCount;
+            this.departures = departures;
+            this.froms = froms;
+            this.tos = tos;
+            this.trips = trips;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Collects the services of the lines and the interchange times
+     */
+    public static final class Builder {
+        private final StationGraph graph;
+        private final NetworkIndex index;
+        private final int[] interchange;
+        private int[] lines = new int[16]; // Per trip
+        private int tripCount = 0;
+        private int[] departures = new int[64];
+        private int[] froms = new int[64];
+        private int[] tos = new int[64];
+        private int[] trips = new int[64];
+        private int size = 0;
+
+        /**
+         * @param graph The graph the lines and stations belong to
+         * @param index The index of the graph, for the order of the stations on the lines
+         */
+        public Builder(StationGraph graph, NetworkIndex index) {
+            this.graph = graph;
+            this.index = index;
+            interchange = new int[graph.stationCount()];
+            Arrays.fill(interchange, DEFAULT_INTERCHANGE);
+        }
+
+        /**
+         * Sets the minimum time to change trains at a station
+         * @return this
+         * @throws IllegalArgumentException If the minutes are negative
+         */
+        public Builder interchange(int station, int minutes) {
+            if (minutes < 0) throw new IllegalArgumentException("negative interchange time: " + minutes);
+            interchange[station] = minutes;
+            return this;
+        }
+
+        /**
+         * Adds the trains running a line between two of its stations at a fixed interval, calling at every
+         * station between them at the timetabled segment minutes
+         * @param line The line id
+         * @param from The station the trains leave from
+         * @param to The station the trains run to
+         * @param first The minute of the day of the first departure
+         * @param last The minute of the day of the last departure
+         * @param every The minutes between departures
+         * @return this
+         * @throws IllegalArgumentException If the line doesn't run between the stations or the times are invalid
+         */
+        public Builder service(int line, int from, int to, int first, int last, int every) {
+            if (every <= 0) throw new IllegalArgumentException("the interval must be positive: " + every);
+            if (first < 0 || last < first) throw new IllegalArgumentException("the last departure is before the first");
+            final int[] stops = stops(line, from, to);
+            final int[] minutes = new int[stops.length]; // From the departure
+            for (int i = 1; i < stops.length; i++)
+                minutes[i] = minutes[i - 1] + Math.abs(index.minutesAt(line, index.position(line, stops[i]))
+                        - index.minutesAt(line, index.position(line, stops[i - 1])));
+            if (last + minutes[stops.length - 1] >= MAX_MINUTE)
+                throw new IllegalArgumentException("the trains run too late: " + clock(last + minutes[stops.length - 1]));
+            for (int departure = first; departure <= last; departure += every) {
+                if (tripCount == lines.length) lines = Arrays.copyOf(lines, tripCount * 2);
+                lines[tripCount] = line;
+                for (int i = 1; i < stops.length; i++)
+                    add(departure + minutes[i - 1], stops[i - 1], stops[i], tripCount);
+                tripCount++;
+            }
+            return this;
+        }
+
+        public Timetable build() {
+            return new Timetable(graph, interchange.clone(), new Trips(Arrays.copyOf(lines, tripCount), tripCount,
+                    Arrays.copyOf(departures, size), Arrays.copyOf(froms, size),
+                    Arrays.copyOf(tos, size), Arrays.copyOf(trips, size), size));
+        }
+
+        /**
+         * @return The stations of the line from one to the other, through the junction of their branches
+         */
+        private int[] stops(int line, int from, int to) {
+            final int a = index.position(line, from);
+            final int b = index.position(line, to);
+            if (a != -1 && b != -1 && a != b) {
+                final Map<Integer, Integer> above = new HashMap<>(); // Position -> its distance from a
+                for (int p = a; p != -1; p = index.parent(line, p)) above.put(p, above.size());
+                final List<Integer> down = new ArrayList<>();
+                int junction = b;
+                while (junction != -1 && !above.containsKey(junction)) {
+                    down.add(junction);
+                    junction = index.parent(line, junction);
+                }
+                if (junction != -1) {
+                    final int[] stops = new int[above.get(junction) + 1 + down.size()];
+                    int i = 0;
+                    for (int p = a; p != junction; p = index.parent(line, p)) stops[i++] = index.station(line, p);
+                    stops[i++] = index.station(line, junction);
+                    for (int j = down.size() - 1; j >= 0; j--) stops[i++] = index.station(line, down.get(j));
+                    return stops;
+                }
+            }
+            throw new IllegalArgumentException("the line " + graph.lineName(line) + " doesn't run from "
+                    + graph.stationName(from) + " to " + graph.stationName(to));
+        }
+
+        private void add(int departure, int from, int to, int trip) {
+            if (size == departures.length) {
+                final int capacity = size * 2;
+                departures = Arrays.copyOf(departures, capacity);
+                froms = Arrays.copyOf(froms, capacity);
+                tos = Arrays.copyOf(tos, capacity);
+                trips = Arrays.copyOf(trips, capacity);
+            }
+            departures[size] = departure;
+            froms[size] = from;
+            tos[size] = to;
+            trips[size] = trip;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.marufeb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The all-pairs travel time and next hop tables, so that the fastest route is a table lookup.
+ * The tables are persisted to a binary cache file which is memory mapped on the next start
+ * and discarded when the checksum of the source data no longer matches.
+ * Disruption updates recompute only the rows they can affect and lay them over the original tables,
+ * which stay untouched, mapped or not.
+ * <pre>
+ * int magic, int version, long checksum, int stations,
+ * int[stations * stations] minutes, int[stations * stations] next hops
+ * </pre>
+ */
+public final class TravelTimeMatrix implements Router {
+    private static final int MAGIC = 0x574D5254; // WMRT
+    private static final int VERSION = 1;
+    private static final int HEADER = 20;
+    /* The most cells of a table, so that both tables are indexed by an int and map as one buffer */
+    private static final long MAX_CELLS = (Integer.MAX_VALUE - HEADER) / 8;
+
+    private final StationGraph graph;
+    private final int n;
+    private final IntBuffer minutes;
+    private final IntBuffer next;
+
+    /* Rows recomputed after updates, null where the tables still hold */
+    private final int[][] minuteRows;
+    private final int[][] nextRows;
+
+    private TravelTimeMatrix(StationGraph graph, IntBuffer minutes, IntBuffer next) {
+        this(graph, minutes, next, new int[graph.stationCount()][], new int[graph.stationCount()][]);
+    }
+
+    private TravelTimeMatrix(StationGraph graph, IntBuffer minutes, IntBuffer next, int[][] minuteRows, int[][] nextRows) {
+        this.graph = graph;
+        this.n = graph.stationCount();
+        this.minutes = minutes;
+        this.next = next;
+        this.minuteRows = minuteRows;
+        this.nextRows = nextRows;
+    }
+
+    /**
+     * @param stations The number of stations
+     * @return Whether the matrix of a graph this large can be built and mapped, up to 16383 stations
+     */
+    public static boolean fits(int stations) {
+        return (long) stations * stations <= MAX_CELLS;
+    }
+
+    /**
+     * Runs a Dijkstra from every station in parallel. O(V (V + E) log V)
+     * @param graph The graph
+     * @return The in-memory matrix
+     * @throws IllegalArgumentException If the graph is too large, see {@link #fits(int)}
+     */
+    public static TravelTimeMatrix build(StationGraph graph) {
+        final int n = graph.stationCount();
+        if (!fits(n)) throw new IllegalArgumentException("too many stations for a matrix: " + n);
+        final int[] minutes = new int[n * n];
+        final int[] next = new int[n * n];
+        final Dijkstra dijkstra = new Dijkstra(graph);
+        IntStream.range(0, n).parallel().forEach(from -> {
+            final int[] hops = new int[n];
+            System.arraycopy(dijkstra.minutesFrom(from, hops), 0, minutes, from * n, n);
+            System.arraycopy(hops, 0, next, from * n, n);
+        });
+        return new TravelTimeMatrix(graph, IntBuffer.wrap(minutes), IntBuffer.wrap(next));
+    }
+
+    /**
+     * Maps the cache file, or builds the matrix and writes the cache file if it is missing or stale
+     * @param cache The cache file
+     * @param graph The graph
+     * @param checksum The checksum of the data the graph was built from
+     * @return The matrix
+     * @throws IOException If the cache file can't be read or written
+     * @throws IllegalArgumentException If the graph is too large, see {@link #fits(int)}
+     */
+    public static TravelTimeMatrix cached(File cache, StationGraph graph, long checksum) throws IOException {
+        final TravelTimeMatrix mapped = map(cache, graph, checksum);
+        if (mapped != null) return mapped;
+        final TravelTimeMatrix built = build(graph);
+        built.write(cache, checksum);
+        return built;
+    }
+
+    /**
+     * @return The mapped matrix, or null if the file is missing or doesn't match the graph
+     */
+    public static TravelTimeMatrix map(File cache, StationGraph graph, long checksum) throws IOException {
+        if (!cache.isFile() || !fits(graph.stationCount())) return null;
+        final long cells = (long) graph.stationCount() * graph.stationCount();
+        try (RandomAccessFile file = new RandomAccessFile(cache, "r"); FileChannel channel = file.getChannel()) {
+            if (channel.size() != HEADER + cells * 8) return null;
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != checksum
+                    || buffer.getInt() != graph.stationCount())
+                return null;
+            final IntBuffer minutes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            final IntBuffer next = minutes.duplicate();
+            minutes.limit((int) cells);
+            next.position((int) cells);
+            return new TravelTimeMatrix(graph, minutes.slice(), next.slice());
+        }
+    }
+
+    /**
+     * Writes the cache file through a private temporary file next to it, which then replaces it,
+     * so a process which has the old file mapped keeps reading it unchanged
+     * @param cache The cache file
+     * @param checksum The checksum of the data the graph was built from
+     * @throws IOException If the file can't be written
+     */
+    public void write(File cache, long checksum) throws IOException {
+        final java.nio.file.Path target = cache.getAbsoluteFile().toPath();
+        final java.nio.file.Path temporary = Files.createTempFile(target.getParent(), cache.getName(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(checksum).putInt(n).flip();
+            while (header.hasRemaining()) channel.write(header);
+            final ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int table = 0; table < 2; table++) {
+                for (int from = 0; from < n; from++)
+                    for (int to = 0; to < n; to++) {
+                        if (!chunk.hasRemaining()) {
+                            chunk.flip();
+                            while (chunk.hasRemaining()) channel.write(chunk);
+                            chunk.clear();
+                        }
+                        chunk.putInt(table == 0 ? minutes(from, to) : next(from, to));
+                    }
+            }
+            chunk.flip();
+            while (chunk.hasRemaining()) channel.write(chunk);
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return The minutes of the fastest route, {@link Dijkstra#INFINITY} if there is none. O(1)
+     */
+    public int minutes(int from, int to) {
+        final int[] row = minuteRows[from];
+        return row != null ? row[to] : minutes.get(from * n + to);
+    }
+
+    private int next(int from, int to) {
+        final int[] row = nextRows[from];
+        return row != null ? row[to] : next.get(from * n + to);
+    }
+
+    /**
+     * Follows the next hops. O(path length)
+     */
+    @Override
+    public Path route(int from, int to) {
+        if (minutes(from, to) == Dijkstra.INFINITY) return null;
+        int length = 1;
+        for (int v = from; v != to; v = next(v, to)) length++;
+        final int[] stations = new int[length];
+        int i = 0;
+        for (int v = from; v != to; v = next(v, to)) stations[i++] = v;
+        stations[i] = to;
+        return Path.of(graph, stations);
+    }
+
+    /**
+     * Recomputes the rows an update can affect. A slower or closed edge only matters to a row whose shortest
+     * paths may run over it, that is where it is tight, and a faster or reopened edge only where it shortens
+     * the way to one of its ends. Segments run both ways, so both orientations are checked.
+     * O(V * changes + affected rows * (V + E) log V)
+     */
+    @Override
+    public TravelTimeMatrix update(StationGraph.Update update) {
+        final StationGraph before = update.before();
+        final StationGraph after = update.build();
+        final int[] changes = update.changes();
+        final int[] affected = IntStream.range(0, n).filter(s -> {
+            for (int e : changes) {
+                final long u = minutes(s, before.source(e));
+                final long v = minutes(s, before.target(e));
+                final long old = before.weight(e);
+                final long now = after.weight(e);
+                if (now > old ? u + old == v || v + old == u : u + now < v || v + now < u) return true;
+            }
+            return false;
+        }).toArray();
+
+        final int[][] minuteRows = this.minuteRows.clone();
+        final int[][] nextRows = this.nextRows.clone();
+        final Dijkstra dijkstra = new Dijkstra(after);
+        Arrays.stream(affected).parallel().forEach(s -> {
+            final int[] hops = new int[n];
+            minuteRows[s] = dijkstra.minutesFrom(s, hops);
+            nextRows[s] = hops;
+        });
+        return new TravelTimeMatrix(after, minutes, next, minuteRows, nextRows);
+    }
+}
@@ -0,0 +1,75 @@
+package com.marufeb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvReaderTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void quotedFieldsKeepCommasQuotesAndLineBreaks() throws IOException {
+        final List<String> rows = read("Line,From,To,Minutes\n"
+                + "\"Birmingham, New Street\",\"A \"\"B\"\"\",\"C\nD\",3\n"
+                + "x,y,z,4\n");
+        assertEquals(List.of("2: [Birmingham, New Street, A \"B\", C\nD, 3]", "4: [x, y, z, 4]"), rows);
+    }
+
+    @Test
+    void carriageReturnsAndSurroundingSpacesAreDropped() throws IOException {
+        final List<String> rows = read("﻿Line,From,To,Minutes\r\n"
+                + "  Cross City Line , Lichfield  ,\"  Redditch \" , 5  \r\n"
+                + "\r\n"
+                + "   \r\n"
+                + "a,b,c,6");
+        assertEquals(List.of("2: [Cross City Line, Lichfield, Redditch, 5]", "5: [a, b, c, 6]"), rows);
+    }
+
+    @Test
+    void aHeaderIsTheFirstRowWithText() throws IOException {
+        assertEquals(List.of("4: [a, b]"), read("\n\nLine,From\na,b\n"));
+    }
+
+    @Test
+    void rowsSpanningTheBuffer() throws IOException {
+        final StringBuilder text = new StringBuilder("Line,From,To,Minutes\r\n");
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            text.append("\"L, ").append(i).append("\",  station ").append(i).append(" ,to,").append(i).append("\r\n");
+            expected.add((i + 2) + ": [L, " + i + ", station " + i + ", to, " + i + "]");
+        }
+        assertEquals(expected, read(text.toString()));
+    }
+
+    @Test
+    void anUnterminatedQuoteIsReported() throws IOException {
+        final List<String> problems = new ArrayList<>();
+        read("h\n\"open,1\n", problems);
+        assertEquals(List.of("test.csv:2: unterminated quote"), problems);
+    }
+
+    private List<String> read(String text) throws IOException {
+        final List<String> problems = new ArrayList<>();
+        final List<String> rows = read(text, problems);
+        assertEquals(List.of(), problems);
+        return rows;
+    }
+
+    private List<String> read(String text, List<String> problems) throws IOException {
+        final File file = new File(directory, "test.csv");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        final List<String> rows = new ArrayList<>();
+        CsvReader.read(file, true, new CRC32(), problems, (line, fields) -> rows.add(line + ": " + fields));
+        return rows;
+    }
+}
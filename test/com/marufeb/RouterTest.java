@@ -0,0 +1,123 @@
+package com.marufeb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the precomputed routers and the ranked search against a plain Dijkstra search on generated networks,
+ * before and after random disruption updates which the routers apply incrementally.
+ */
+class RouterTest {
+    private static final int STATIONS = 400;
+    private static final int PAIRS = 300;
+    private static final int UPDATES = 3;
+
+    @Test
+    void routersAgreeWithDijkstra() {
+        for (long seed = 1; seed <= 4; seed++) {
+            StationGraph graph = NetworkGenerator.of(STATIONS, seed).generate().graph();
+            Router landmarks = new Dijkstra(graph, Landmarks.of(graph, 4));
+            Router hierarchy = ContractionHierarchy.build(graph);
+            Router matrix = TravelTimeMatrix.build(graph);
+            final Random random = new Random(seed);
+            for (int round = 0; round <= UPDATES; round++) {
+                final String where = "seed " + seed + ", after " + round + " updates";
+                assertSameMinutes(graph, landmarks, random, where + ", landmarks");
+                assertSameMinutes(graph, hierarchy, random, where + ", hierarchy");
+                assertSameMinutes(graph, matrix, random, where + ", matrix");
+                if (round == UPDATES) break;
+
+                final StationGraph.Update update = graph.update();
+                disrupt(graph, update, random);
+                landmarks = landmarks.update(update);
+                hierarchy = hierarchy.update(update);
+                matrix = matrix.update(update);
+                graph = update.build();
+            }
+        }
+    }
+
+    @Test
+    void rankedRoutesHoldTheFastestFewestChangeAndStepFreeRoutes() {
+        for (long seed = 1; seed <= 4; seed++) {
+            StationGraph graph = NetworkGenerator.of(STATIONS, seed).generate().graph();
+            final Random random = new Random(seed);
+            for (int round = 0; round < 2; round++) {
+                assertRanked(graph, random, "seed " + seed + ", after " + round + " updates");
+                final StationGraph.Update update = graph.update();
+                disrupt(graph, update, random);
+                graph = update.build();
+            }
+        }
+    }
+
+    private static void assertRanked(StationGraph graph, Random random, String where) {
+        final Dijkstra dijkstra = new Dijkstra(graph);
+        final ParetoSearch pareto = new ParetoSearch(graph);
+        for (int i = 0; i < PAIRS; i++) {
+            final int from = random.nextInt(graph.stationCount());
+            final int to = random.nextInt(graph.stationCount());
+            if (from == to) continue;
+            final String pair = where + ": " + from + " -> " + to;
+            final List<Path> routes = pareto.routes(from, to);
+            final Path fastest = dijkstra.route(from, to);
+            if (fastest == null) {
+                assertTrue(routes.isEmpty(), pair);
+                continue;
+            }
+            assertEquals(fastest.minutes(), routes.get(0).minutes(), pair + ", fastest");
+            assertEquals(dijkstra.fewestChanges(from, to),
+                    routes.stream().mapToInt(Path::changes).min().getAsInt(), pair + ", fewest changes");
+            final Path accessible = dijkstra.accessibleRoute(from, to);
+            assertEquals(accessible == null ? -1 : accessible.minutes(), routes.stream()
+                    .filter(it -> Route.of(graph, it).stepFree()).mapToInt(Path::minutes).min().orElse(-1), pair + ", step-free");
+            for (Path a : routes)
+                for (Path b : routes)
+                    assertFalse(a != b && dominates(graph, a, b), pair + ", a dominated route");
+        }
+    }
+
+    private static void assertSameMinutes(StationGraph graph, Router router, Random random, String where) {
+        final Dijkstra dijkstra = new Dijkstra(graph);
+        for (int i = 0; i < PAIRS; i++) {
+            final int from = random.nextInt(graph.stationCount());
+            final int to = random.nextInt(graph.stationCount());
+            final Path expected = dijkstra.route(from, to);
+            final Path actual = router.route(from, to);
+            assertEquals(expected == null ? -1 : expected.minutes(), actual == null ? -1 : actual.minutes(),
+                    where + ": " + from + " -> " + to);
+            if (actual != null) {
+                assertEquals(from, actual.from(), where);
+                assertEquals(to, actual.to(), where);
+            }
+        }
+    }
+
+    /**
+     * Slows some segments down and speeds others up, closes a segment and a station, and changes step-free access
+     */
+    private static void disrupt(StationGraph graph, StationGraph.Update update, Random random) {
+        for (int i = 0; i < 6; i++) {
+            final int e = random.nextInt(graph.edgeCount());
+            final int minutes = graph.minutes(e);
+            update.minutes(graph.lineOf(e), graph.source(e), graph.target(e),
+                    i % 2 == 0 ? minutes + 1 + random.nextInt(20) : random.nextInt(minutes + 1));
+        }
+        final int e = random.nextInt(graph.edgeCount());
+        update.closeSegment(graph.lineOf(e), graph.source(e), graph.target(e));
+        update.closeStation(random.nextInt(graph.stationCount()));
+        final int station = random.nextInt(graph.stationCount());
+        update.stepFree(station, !graph.stepFree(station));
+    }
+
+    private static boolean dominates(StationGraph graph, Path a, Path b) {
+        final boolean stepFreeA = Route.of(graph, a).stepFree();
+        final boolean stepFreeB = Route.of(graph, b).stepFree();
+        return a.minutes() <= b.minutes() && a.changes() <= b.changes() && (stepFreeA || !stepFreeB)
+                && (a.minutes() < b.minutes() || a.changes() < b.changes() || stepFreeA != stepFreeB);
+    }
+}